@@ -0,0 +1,24 @@
+/**File: BenchmarkMain.java
+ * Desc:
+ * 		Entry point of benchmarks.jar. Takes the usual JMH command line, and adds the gc profiler
+ * 		so every run reports allocation rate next to throughput.
+ */
+
+package quadtree.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+			.parent(new CommandLineOptions(args))
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,78 @@
+/**File: FilterBenchmark.java
+ * Desc:
+ * 		Benchmarks of the filters that read the original picture instead of the tree, for every
+ * 		kind of synthetic picture at several sizes. The build threshold does not change them, so
+ * 		it is not a parameter here. Each filter runs on both backends of the pixel loops, the
+ * 		vector one falling back to scalar on machines without SIMD registers. The tree is built
+ * 		once with the default threshold for the filters that skip the inside of flat leaves.
+ */
+
+package quadtree.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import quadtree.PixelBuffer;
+import quadtree.QuadTree;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules", "jdk.incubator.vector"})
+public class FilterBenchmark {
+	@Param({"flat", "noisy", "natural"})
+	public String kind;
+	//kind of synthetic picture, see SyntheticImages
+	@Param({"256", "1024", "2048"})
+	public int size;
+	//width and height of the picture
+	@Param({"vector", "scalar"})
+	public String kernels;
+	//backend of the pixel loops, see PixelKernels. Every fork picks it once, before the first
+	//filter runs
+	private QuadTree tree;
+	//a tree over the picture, built once
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		System.setProperty("quadtree.kernels", this.kernels);
+		this.tree = new QuadTree(SyntheticImages.generate(this.kind, this.size, this.size));
+		this.tree.insert();
+	}
+
+	@Benchmark
+	public PixelBuffer edgeDetection() {
+		this.tree.edgeDetection();
+		return this.tree.getModifiedBuffer();
+	}
+
+	@Benchmark
+	public PixelBuffer edgeDetectionFlatLeaves() {
+		this.tree.edgeDetection(0.0);
+		return this.tree.getModifiedBuffer();
+	}
+
+	@Benchmark
+	public PixelBuffer sharpen() {
+		this.tree.sharpen();
+		return this.tree.getModifiedBuffer();
+	}
+
+	@Benchmark
+	public PixelBuffer grayScale() {
+		this.tree.grayScale();
+		return this.tree.getModifiedBuffer();
+	}
+}
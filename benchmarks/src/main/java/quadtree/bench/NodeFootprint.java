@@ -0,0 +1,59 @@
+/**File: NodeFootprint.java
+ * Desc:
+ * 		Measures the heap taken by the nodes of QuadTree and of CompactQuadTree built over the
+ * 		same synthetic picture, using JOL to read the object sizes of the running JVM. The source
+ * 		picture and summed-area tables, which both trees hold, are left out.
+ *
+ * 		java -cp benchmarks/target/benchmarks.jar quadtree.bench.NodeFootprint [kind size threshold]
+ */
+
+package quadtree.bench;
+
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+import quadtree.CompactQuadTree;
+import quadtree.NodeVisitor;
+import quadtree.PixelBuffer;
+import quadtree.QuadTree;
+
+public class NodeFootprint {
+
+	public static void main(String[] args) {
+		String kind = args.length > 0 ? args[0] : "natural";
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+		int threshold = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		PixelBuffer pixels = SyntheticImages.generate(kind, size, size);
+
+		QuadTree tree = new QuadTree(pixels);
+		tree.setThreshold(threshold);
+		tree.insert();
+		//a node's own object plus its avgColor array, which only it points to
+		long avgColorBytes = VM.current().sizeOf(new int[3]);
+		long[] treeBytes = {0, 0};
+		tree.walk(node -> {
+			treeBytes[0] += VM.current().sizeOf(node) + avgColorBytes;
+			treeBytes[1]++;
+			return NodeVisitor.Result.CONTINUE;
+		});
+		report("QuadTree", treeBytes[0], treeBytes[1]);
+
+		CompactQuadTree compact = new CompactQuadTree(pixels);
+		compact.setThreshold(threshold);
+		compact.insert();
+		//the node arrays are the only fields of the tree that grow with the node count
+		GraphLayout layout = GraphLayout.parseInstance(compact);
+		long compactBytes = 0;
+		for (long address: layout.addresses()) {
+			String path = layout.record(address).path();
+			if (path.equals(".avgColor") || path.equals(".firstChild")) {
+				compactBytes += layout.record(address).size();
+			}
+		}
+		report("CompactQuadTree", compactBytes, compact.getNumNodes());
+	}
+
+	private static void report(String name, long bytes, long nodes) {
+		System.out.printf("%-16s %,12d nodes %,14d bytes %6.1f bytes/node %,10.0f nodes/MB%n",
+						  name, nodes, bytes, (double) bytes / nodes, nodes * (double) (1 << 20) / bytes);
+	}
+}
@@ -0,0 +1,109 @@
+/**File: SyntheticImages.java
+ * Desc:
+ * 		Pictures generated from a fixed seed for the benchmarks, so every run and every machine
+ * 		measures the same pixels. Flat pictures are a few large blocks of one color and give
+ * 		small trees, noisy pictures are random in every pixel and split down to single pixels,
+ * 		and natural pictures are smooth gradients with hard edged shapes and a little grain,
+ * 		which is closest to a photo.
+ */
+
+package quadtree.bench;
+
+import java.util.Random;
+import quadtree.PixelBuffer;
+
+public final class SyntheticImages {
+	private static final long SEED = 0x5EEDL;
+	//seed of every generated picture
+
+	private SyntheticImages() {
+	}
+
+	/** Method that generates a picture
+	 * @param kind	"flat", "noisy" or "natural"
+	 * @param width	width of the picture
+	 * @param height	height of the picture
+	 * @return	the picture
+	 */
+	public static PixelBuffer generate(String kind, int width, int height) {
+		switch (kind) {
+			case "flat": return flat(width, height);
+			case "noisy": return noisy(width, height);
+			case "natural": return natural(width, height);
+			default: throw new IllegalArgumentException("unknown image kind: " + kind);
+		}
+	}
+
+	/** Method that generates a picture of a 4 by 4 grid of blocks, each one color
+	 */
+	private static PixelBuffer flat(int width, int height) {
+		Random random = new Random(SEED);
+		int[] palette = new int[16];
+		for (int i = 0; i < palette.length; i++) {
+			palette[i] = random.nextInt(1 << 24);
+		}
+		PixelBuffer pixels = PixelBuffer.allocate(width, height);
+		for (int row = 0; row < height; row++) {
+			for (int block = 0; block < 4; block++) {
+				int startCol = block * width / 4;
+				int endCol = (block + 1) * width / 4;
+				pixels.fill(row, startCol, endCol - startCol, palette[(row * 4 / height) * 4 + block]);
+			}
+		}
+		return pixels;
+	}
+
+	/** Method that generates a picture of independent random pixels
+	 */
+	private static PixelBuffer noisy(int width, int height) {
+		Random random = new Random(SEED);
+		PixelBuffer pixels = PixelBuffer.allocate(width, height);
+		int[] line = new int[width];
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				line[col] = random.nextInt(1 << 24);
+			}
+			pixels.setRow(row, 0, width, line, 0);
+		}
+		return pixels;
+	}
+
+	/** Method that generates a picture of a diagonal gradient with a few solid discs on top and
+	 * 	grain of a few levels in every channel
+	 */
+	private static PixelBuffer natural(int width, int height) {
+		Random random = new Random(SEED);
+		int discs = 12;
+		int[] centerRow = new int[discs];
+		int[] centerCol = new int[discs];
+		int[] radius = new int[discs];
+		int[] color = new int[discs];
+		for (int i = 0; i < discs; i++) {
+			centerRow[i] = random.nextInt(height);
+			centerCol[i] = random.nextInt(width);
+			radius[i] = 1 + random.nextInt(Math.max(1, Math.min(width, height) / 6));
+			color[i] = random.nextInt(1 << 24);
+		}
+		PixelBuffer pixels = PixelBuffer.allocate(width, height);
+		int[] line = new int[width];
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col++) {
+				int rgb = PixelBuffer.pack(255 * col / width, 255 * row / height,
+										   255 * (row + col) / (width + height));
+				for (int i = 0; i < discs; i++) {
+					long dr = row - centerRow[i];
+					long dc = col - centerCol[i];
+					if (dr * dr + dc * dc <= (long) radius[i] * radius[i]) {
+						rgb = color[i];
+					}
+				}
+				int grain = random.nextInt(9) - 4;
+				line[col] = PixelBuffer.pack(PixelBuffer.red(rgb) + grain,
+											 PixelBuffer.green(rgb) + grain,
+											 PixelBuffer.blue(rgb) + grain);
+			}
+			pixels.setRow(row, 0, width, line, 0);
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,95 @@
+/**File: TreeBenchmark.java
+ * Desc:
+ * 		Benchmarks of building a quadtree and of the renderers that walk its leaves, for every
+ * 		kind of synthetic picture at several sizes and build thresholds.
+ */
+
+package quadtree.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import quadtree.PixelBuffer;
+import quadtree.QuadTree;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class TreeBenchmark {
+	@Param({"flat", "noisy", "natural"})
+	public String kind;
+	//kind of synthetic picture, see SyntheticImages
+	@Param({"256", "1024", "2048"})
+	public int size;
+	//width and height of the picture
+	@Param({"100", "1000", "7000"})
+	public int threshold;
+	//threshold when creating the quadtree
+	private PixelBuffer pixels;
+	//the picture
+	private QuadTree tree;
+	//a tree built over the picture, rendered by the renderer benchmarks
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.pixels = SyntheticImages.generate(this.kind, this.size, this.size);
+		this.tree = new QuadTree(this.pixels);
+		this.tree.setThreshold(this.threshold);
+		this.tree.insert();
+	}
+
+	/** Summed-area tables plus the build, what a caller pays for a new picture
+	 */
+	@Benchmark
+	public QuadTree build() {
+		QuadTree built = new QuadTree(this.pixels);
+		built.setThreshold(this.threshold);
+		built.insert();
+		return built;
+	}
+
+	/** The build alone. insert starts again from the root, so every call is a full build
+	 */
+	@Benchmark
+	public int insert() {
+		this.tree.insert();
+		return this.tree.getNumLeaves();
+	}
+
+	@Benchmark
+	public int insertParallel() {
+		this.tree.insertParallel();
+		return this.tree.getNumLeaves();
+	}
+
+	@Benchmark
+	public PixelBuffer outline() {
+		this.tree.outline();
+		return this.tree.getModifiedBuffer();
+	}
+
+	@Benchmark
+	public PixelBuffer outlineCompressed() {
+		this.tree.outlineCompressed();
+		return this.tree.getModifiedBuffer();
+	}
+
+	@Benchmark
+	public PixelBuffer compressToLevel() {
+		this.tree.compressToLevel(1.0);
+		return this.tree.getModifiedBuffer();
+	}
+}
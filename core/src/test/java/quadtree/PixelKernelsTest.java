@@ -0,0 +1,86 @@
+/**File: PixelKernelsTest.java
+ * Desc:
+ * 		Checks that the threshold of VectorKernels gives the same pixels as the scalar loop of
+ * 		PixelKernels, bit for bit, on random rows at several offsets and lengths. The lengths run
+ * 		past four steps of the widest registers, so every tail the scalar loop finishes is
+ * 		covered, and the pixels around the run must be left alone. The gray scale has no vector
+ * 		loop, so it is only checked that VectorKernels keeps the scalar one.
+ */
+
+package quadtree;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+import jdk.incubator.vector.IntVector;
+import org.junit.jupiter.api.Test;
+
+class PixelKernelsTest {
+	private static final int[] OFFSETS = {0, 1, 3, 7, 64};
+	//where the runs start in the row
+	private static final int EDGE_LEVEL = 80;
+	//the level edge detection thresholds at
+	private static final int[] LEVELS = {0, 1, EDGE_LEVEL, 127, 254, 255};
+	//threshold levels, including the ends of the channel range
+	private static final int MAX_LENGTH = 4 * IntVector.SPECIES_PREFERRED.length() + 3;
+	//longest run checked, every length up to it is tried
+
+	private final PixelKernels scalar = new PixelKernels();
+	private final PixelKernels vector = new VectorKernels();
+
+	@Test
+	void thresholdMatchesScalar() {
+		Random random = new Random(18);
+		for (int level: LEVELS) {
+			for (int from: OFFSETS) {
+				for (int length = 0; length <= MAX_LENGTH; length++) {
+					int[] row = randomRow(random, from + length + 5, level);
+					int[] expected = row.clone();
+					this.scalar.threshold(expected, from, length, level);
+					this.vector.threshold(row, from, length, level);
+					assertArrayEquals(expected, row, "level " + level + ", from " + from + ", length " + length);
+				}
+			}
+		}
+	}
+
+	@Test
+	void grayScaleStaysScalar() throws NoSuchMethodException {
+		PixelKernels.class.getDeclaredMethod("grayScale", int[].class, int.class, int.class);
+		assertThrows(NoSuchMethodException.class,
+					 () -> VectorKernels.class.getDeclaredMethod("grayScale", int[].class, int.class, int.class));
+	}
+
+	@Test
+	void longRowsMatchScalar() {
+		Random random = new Random(9);
+		for (int length: new int[] {1000, 1023, 4096, 4099}) {
+			int[] row = randomRow(random, length + 3, EDGE_LEVEL);
+			int[] expected = row.clone();
+			this.scalar.threshold(expected, 3, length, EDGE_LEVEL);
+			this.vector.threshold(row, 3, length, EDGE_LEVEL);
+			assertArrayEquals(expected, row, "length " + length);
+		}
+	}
+
+	/** Method that makes a row of random pixels. A quarter of the channels are set right at or
+	 * 	next to the level, where a compare that is off by one would show
+	 * @param random	the source of the pixels
+	 * @param length	number of pixels
+	 * @param level	the level to put channels around
+	 * @return	the pixels packed as 0xRRGGBB
+	 */
+	private static int[] randomRow(Random random, int length, int level) {
+		int[] row = new int[length];
+		for (int i = 0; i < length; i++) {
+			int rgb = 0;
+			for (int shift = 16; shift >= 0; shift -= 8) {
+				int channel = random.nextInt(4) == 0 ? level - 1 + random.nextInt(3) : random.nextInt(256);
+				rgb |= Math.min(255, Math.max(0, channel)) << shift;
+			}
+			row[i] = rgb;
+		}
+		return row;
+	}
+}
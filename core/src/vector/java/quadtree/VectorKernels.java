@@ -0,0 +1,55 @@
+/**File: VectorKernels.java
+ * Desc:
+ * 		The loops of PixelKernels on the jdk.incubator.vector API, as many pixels per step as the
+ * 		widest registers of the machine hold, with the scalar loop for the tail. The threshold is
+ * 		all integer compares, so every result is the same bit for bit. The gray scale stays on
+ * 		the scalar loop: it has to go through doubles to round like the scalar one, and the int
+ * 		to double conversions and back cost more than the wider steps save.
+ *
+ * 		This file is kept out of quadtree/ so the package still builds with a plain javac. Maven
+ * 		compiles it with --add-modules jdk.incubator.vector, and it only loads when the JVM is
+ * 		started with the same flag.
+ */
+
+package quadtree;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorKernels extends PixelKernels {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	//pixels per step of the threshold
+
+	/** Method that tells if the vector loops pay off on this machine. Registers that hold
+	 * 	fewer than four pixels are no faster than the scalar loops
+	 * @return	true if the widest registers are 128 bits or more
+	 */
+	static boolean isSupported() {
+		return INTS.length() >= 4;
+	}
+
+	@Override
+	void threshold(int[] row, int from, int length, int level) {
+		int i = from;
+		int bound = from + INTS.loopBound(length);
+		IntVector black = IntVector.zero(INTS);
+		for (; i < bound; i += INTS.length()) {
+			IntVector rgb = IntVector.fromArray(INTS, row, i);
+			IntVector red = rgb.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+			IntVector green = rgb.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+			IntVector blue = rgb.and(0xFF);
+			VectorMask<Integer> white = red.compare(VectorOperators.GT, level)
+										   .and(green.compare(VectorOperators.GT, level))
+										   .and(blue.compare(VectorOperators.GT, level));
+			black.blend(0xFFFFFF, white).intoArray(row, i);
+		}
+		super.threshold(row, i, from + length - i, level);
+	}
+
+	@Override
+	public String toString() {
+		return "vector " + INTS.vectorBitSize() + " bit";
+	}
+}
@@ -0,0 +1,372 @@
+/**File: BatchProcessor.java
+ * Desc:
+ * 		Processes many pictures in one JVM. Every picture goes through four stages: decode, build
+ * 		the quadtree, render the filter and encode. Each stage has its own worker threads and
+ * 		hands its pictures to the next stage through a bounded queue, so a slow stage makes the
+ * 		ones before it wait instead of piling decoded pictures up in memory, and decoding the next
+ * 		pictures overlaps with building and encoding the current ones.
+ */
+
+package quadtree;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+public class BatchProcessor {
+	private static final Job END = new Job(null, null);
+	//passed down the queues after the last picture
+	private final Operation operation;
+	//the build threshold and filter run on every picture
+	private final int workers;
+	//threads per stage
+	private final int queueCapacity;
+	//pictures each queue between two stages can hold
+
+	/** A picture on its way through the stages
+	 */
+	private static final class Job {
+		private final File input;
+		//the picture to read
+		private final File output;
+		//the file to write
+		private BufferedImage image;
+		//the decoded picture, set by the decode stage
+		private QuadTree tree;
+		//the quadtree, set by the build stage
+
+		Job(File input, File output) {
+			this.input = input;
+			this.output = output;
+		}
+	}
+
+	/** The work one stage does on a picture
+	 */
+	private interface Step {
+		void run(Job job) throws Exception;
+	}
+
+	/** Counts of a finished batch
+	 */
+	public static final class Result {
+		private final int processed;
+		//pictures written
+		private final int failed;
+		//pictures that failed in some stage
+		private final double seconds;
+		//wall clock time of the batch
+
+		Result(int processed, int failed, double seconds) {
+			this.processed = processed;
+			this.failed = failed;
+			this.seconds = seconds;
+		}
+
+		public int getProcessed() {
+			return this.processed;
+		}
+
+		public int getFailed() {
+			return this.failed;
+		}
+
+		public double getSeconds() {
+			return this.seconds;
+		}
+
+		public double imagesPerSecond() {
+			return this.seconds > 0 ? this.processed / this.seconds : 0.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d images, %d failed, %.2f s, %.1f images/s",
+								 this.processed, this.failed, this.seconds, imagesPerSecond());
+		}
+	}
+
+	/** Constructor for a batch processor
+	 * @param operation	the build threshold and filter run on every picture
+	 * @param workers	threads per stage
+	 * @param queueCapacity	pictures each queue between two stages can hold
+	 */
+	public BatchProcessor(Operation operation, int workers, int queueCapacity) {
+		if (workers < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("workers and queue capacity must be positive");
+		}
+		this.operation = operation;
+		this.workers = workers;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/** Method that processes a list of pictures and writes each one to the output directory
+	 * 	under its own name with the extension of the format, see outputNames
+	 * @param inputs	the pictures to process
+	 * @param outputDir	the directory the results are written into
+	 * @param format	the informal name of the output format, e.g. "jpg"
+	 * @return	the counts of the batch
+	 * @throws IllegalArgumentException	if a picture is listed twice
+	 * @throws InterruptedException	if the calling thread or a worker is interrupted. Every
+	 * 								stage is stopped before this is thrown
+	 */
+	public Result run(List<File> inputs, File outputDir, String format) throws InterruptedException {
+		List<String> names = outputNames(inputs, format);
+		outputDir.mkdirs();
+		long start = System.nanoTime();
+		BlockingQueue<Job> decodeQueue = new ArrayBlockingQueue<Job>(this.queueCapacity);
+		BlockingQueue<Job> buildQueue = new ArrayBlockingQueue<Job>(this.queueCapacity);
+		BlockingQueue<Job> filterQueue = new ArrayBlockingQueue<Job>(this.queueCapacity);
+		BlockingQueue<Job> encodeQueue = new ArrayBlockingQueue<Job>(this.queueCapacity);
+		AtomicInteger processed = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		//an interrupted worker stops the whole batch, so no stage waits on one that is gone
+		Thread caller = Thread.currentThread();
+		AtomicBoolean cancelled = new AtomicBoolean();
+		Runnable cancel = () -> {
+			if (cancelled.compareAndSet(false, true)) {
+				for (Thread thread: threads) {
+					thread.interrupt();
+				}
+				caller.interrupt();
+			}
+		};
+		Stage stage = new Stage(threads, failed, cancelled, cancel);
+		stage.start("decode", decodeQueue, buildQueue, job -> {
+			PhaseEvent event = PhaseEvent.begin("read", job.input.getName());
+			job.image = ImageIO.read(job.input);
+			if (job.image == null) {
+				throw new IOException("no reader for " + job.input);
+			}
+			event.finish((long) job.image.getWidth() * job.image.getHeight());
+		});
+		stage.start("build", buildQueue, filterQueue, job -> {
+			job.tree = new QuadTree(PixelBuffer.wrap(job.image));
+			job.tree.setImageName(job.input.getName());
+			this.operation.build(job.tree);
+		});
+		stage.start("filter", filterQueue, encodeQueue, job -> {
+			this.operation.render(job.tree);
+			job.image = null;
+		});
+		stage.start("encode", encodeQueue, null, job -> {
+			PhaseEvent event = PhaseEvent.begin("write", job.input.getName());
+			if (!ImageIO.write(job.tree.getModifiedBuffer().toImage(), format, job.output)) {
+				throw new IOException("no writer for " + format);
+			}
+			event.finish((long) job.tree.getWidth() * job.tree.getHeight());
+			job.tree = null;
+			processed.incrementAndGet();
+		});
+		try {
+			for (int i = 0; i < inputs.size(); i++) {
+				File output = new File(outputDir, names.get(i));
+				output.getParentFile().mkdirs();
+				decodeQueue.put(new Job(inputs.get(i), output));
+			}
+			decodeQueue.put(END);
+			for (Thread thread: threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			cancel.run();
+			throw e;
+		}
+		return new Result(processed.get(), failed.get(), (System.nanoTime() - start) / 1e9);
+	}
+
+	/** Starts the worker threads of the stages of one batch
+	 */
+	private final class Stage {
+		private final List<Thread> threads;
+		//every worker of the batch
+		private final AtomicInteger failed;
+		//counter of pictures that failed
+		private final AtomicBoolean cancelled;
+		//set once the batch is stopped by an interrupt
+		private final Runnable cancel;
+		//stops the batch
+
+		Stage(List<Thread> threads, AtomicInteger failed, AtomicBoolean cancelled, Runnable cancel) {
+			this.threads = threads;
+			this.failed = failed;
+			this.cancelled = cancelled;
+			this.cancel = cancel;
+		}
+
+		/** Method that starts the worker threads of a stage. A worker that takes END puts it
+		 * 	back for the other workers of the stage, and the last one to stop, for whatever
+		 * 	reason, passes it to the next stage. An interrupted worker cancels the batch
+		 * @param name	name of the stage, used for thread names and error messages
+		 * @param in	the queue the stage takes pictures from
+		 * @param out	the queue of the next stage, null for the last stage
+		 * @param step	the work done on each picture
+		 */
+		void start(String name, BlockingQueue<Job> in, BlockingQueue<Job> out, Step step) {
+			AtomicInteger running = new AtomicInteger(BatchProcessor.this.workers);
+			for (int i = 0; i < BatchProcessor.this.workers; i++) {
+				Thread thread = new Thread(() -> {
+					try {
+						while (true) {
+							Job job = in.take();
+							if (job == END) {
+								in.put(END);
+								return;
+							}
+							try {
+								step.run(job);
+							} catch (Exception | OutOfMemoryError e) {
+								this.failed.incrementAndGet();
+								System.err.println(name + " failed for " + job.input + ": " + e);
+								continue;
+							}
+							if (out != null) {
+								out.put(job);
+							}
+						}
+					} catch (InterruptedException e) {
+						this.cancel.run();
+					} finally {
+						if (running.decrementAndGet() == 0 && out != null) {
+							passEnd(out);
+						}
+					}
+				}, name + "-" + i);
+				this.threads.add(thread);
+				thread.start();
+			}
+		}
+
+		/** Method that tells the next stage no more pictures are coming. Once the batch is
+		 * 	cancelled its workers are stopping anyway and may not drain the queue, so END is
+		 * 	only passed if there is room
+		 * @param out	the queue of the next stage
+		 */
+		private void passEnd(BlockingQueue<Job> out) {
+			if (this.cancelled.get()) {
+				out.offer(END);
+				return;
+			}
+			try {
+				out.put(END);
+			} catch (InterruptedException e) {
+				this.cancel.run();
+				out.offer(END);
+			}
+		}
+	}
+
+	/** Method that names the output of every picture of a batch so no two are the same. Each
+	 * 	keeps its path below the deepest directory holding all the pictures, so pictures of one
+	 * 	name from different directories of a manifest go to different subdirectories, and its
+	 * 	extension is swapped for the format's. Pictures that would still meet, like a.jpg and
+	 * 	a.png, keep their extension in front of the format's, a.jpg.png and a.png.png
+	 * @param inputs	the pictures
+	 * @param format	the informal name of the output format
+	 * @return	the output paths relative to the output directory, in the order of the inputs
+	 * @throws IllegalArgumentException	if a picture is listed twice
+	 */
+	static List<String> outputNames(List<File> inputs, String format) {
+		List<Path> paths = new ArrayList<Path>();
+		Path common = null;
+		for (File input: inputs) {
+			Path path = input.toPath().toAbsolutePath().normalize();
+			paths.add(path);
+			Path parent = path.getParent();
+			if (common == null) {
+				common = parent;
+			}
+			while (common != null && !parent.startsWith(common)) {
+				common = common.getParent();
+			}
+		}
+		//output paths without the format's extension, and how many pictures want each
+		List<String> bases = new ArrayList<String>();
+		List<String> relatives = new ArrayList<String>();
+		Map<String, Integer> uses = new HashMap<String, Integer>();
+		for (Path path: paths) {
+			Path relative = common == null ? path.subpath(0, path.getNameCount()) : common.relativize(path);
+			String name = relative.getFileName().toString();
+			int dot = name.lastIndexOf('.');
+			String base = relative.toString();
+			if (dot > 0) {
+				base = base.substring(0, base.length() - (name.length() - dot));
+			}
+			bases.add(base);
+			relatives.add(relative.toString());
+			uses.merge(base, 1, Integer::sum);
+		}
+		List<String> names = new ArrayList<String>();
+		Set<String> taken = new HashSet<String>();
+		for (int i = 0; i < paths.size(); i++) {
+			String base = bases.get(i);
+			String name = (uses.get(base) > 1 ? relatives.get(i) : base) + "." + format;
+			if (!taken.add(name)) {
+				throw new IllegalArgumentException(inputs.get(i) + " would be written to " + name +
+												   " like another picture of the batch");
+			}
+			names.add(name);
+		}
+		return names;
+	}
+
+	/** Method that lists the pictures ImageIO can read in a directory, by file extension
+	 * @param dir	the directory
+	 * @return	the pictures, sorted by name
+	 * @throws IOException	if dir is not a directory or can't be listed
+	 */
+	public static List<File> listImages(File dir) throws IOException {
+		List<String> suffixes = Arrays.asList(ImageIO.getReaderFileSuffixes());
+		List<File> images = new ArrayList<File>();
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("can't list " + dir);
+		}
+		Arrays.sort(files);
+		for (File file: files) {
+			String name = file.getName();
+			int dot = name.lastIndexOf('.');
+			if (file.isFile() && dot > 0 && suffixes.contains(name.substring(dot + 1).toLowerCase())) {
+				images.add(file);
+			}
+		}
+		return images;
+	}
+
+	/** Method that reads a manifest of pictures, one path per line. Blank lines and lines
+	 * 	starting with # are skipped
+	 * @param manifest	the manifest file
+	 * @return	the pictures
+	 * @throws IOException	if the manifest can't be read
+	 */
+	public static List<File> readManifest(File manifest) throws IOException {
+		List<File> images = new ArrayList<File>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(manifest))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					images.add(new File(line));
+				}
+			}
+		}
+		return images;
+	}
+}
@@ -0,0 +1,242 @@
+/**File: BoxBlur.java
+ * Desc:
+ * 		Box blurs whose cost per pixel does not grow with the radius. A box is the mean of a
+ * 		(2r + 1) by (2r + 1) square, which splits into a mean along the row and a mean down the
+ * 		column, and each of those is a running sum: moving the window one pixel adds the pixel
+ * 		that enters it and takes away the one that leaves it. Pixels past the edge of the
+ * 		picture read as the clamped edge pixels, as in Convolution.
+ *
+ * 		A Gaussian blur is approximated by three box blurs in a row, whose widths are picked so
+ * 		the variance of the three together is that of the Gaussian. Each box is run along the
+ * 		rows and then down the columns, on bands of rows that run on all cores.
+ */
+
+package quadtree;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+final class BoxBlur {
+	private static final int BANDS_PER_THREAD = 4;
+	//row bands handed to each thread of the pool, so uneven bands still balance out
+	private static final int GAUSSIAN_PASSES = 3;
+	//box blurs a Gaussian is approximated with, close to it everywhere but in the far tails
+	private final int[] radii;
+	//radius of each box, run in order
+
+	/** Constructor for a blur
+	 * @param radii	radius of each box, run in order. A radius of 0 leaves the picture as it is
+	 */
+	BoxBlur(int... radii) {
+		if (radii.length == 0) {
+			throw new IllegalArgumentException("a blur needs at least one box");
+		}
+		for (int radius: radii) {
+			if (radius < 0) {
+				throw new IllegalArgumentException("negative blur radius " + radius);
+			}
+		}
+		this.radii = radii.clone();
+	}
+
+	/** Method that makes the box blurs approximating a Gaussian blur. Boxes have odd widths, so
+	 * 	the widths are the two odd numbers around the ideal one, with as many of the narrower
+	 * 	as keep the summed variance, (width^2 - 1) / 12 per box, closest to sigma^2
+	 * @param sigma	standard deviation of the Gaussian in pixels
+	 * @return	the blur
+	 */
+	static BoxBlur gaussian(double sigma) {
+		if (sigma < 0) {
+			throw new IllegalArgumentException("negative blur sigma " + sigma);
+		}
+		int n = GAUSSIAN_PASSES;
+		double variance = sigma * sigma;
+		int lower = (int) Math.floor(Math.sqrt(12 * variance / n + 1));
+		if (lower % 2 == 0) {
+			lower--;
+		}
+		int upper = lower + 2;
+		int narrow = (int) Math.round((12 * variance - n * lower * lower - 4 * n * lower - 3 * n) /
+									  (-4.0 * lower - 4));
+		int[] radii = new int[n];
+		for (int i = 0; i < n; i++) {
+			radii[i] = ((i < narrow ? lower : upper) - 1) / 2;
+		}
+		return new BoxBlur(radii);
+	}
+
+	/** Method that gets how far an output pixel reads past itself
+	 * @return	the sum of the radii of the boxes
+	 */
+	int getRadius() {
+		int radius = 0;
+		for (int r: this.radii) {
+			radius += r;
+		}
+		return radius;
+	}
+
+	/** Method that blurs a picture into another buffer of the same size, which may be src
+	 * @param src	the picture to blur
+	 * @param dst	the buffer the result is written into
+	 */
+	void apply(PixelBuffer src, PixelBuffer dst) {
+		apply(src, dst, 0, 0, src.getWidth(), src.getHeight());
+	}
+
+	/** Method that blurs a rectangle of a picture into the same rectangle of another buffer.
+	 * 	The picture is read getRadius() pixels around the rectangle, so the rectangle comes out
+	 * 	the same as in a blur of the whole picture
+	 * @param src	the picture to blur
+	 * @param dst	the buffer the result is written into
+	 * @param startRow	row index of top left corner of the rectangle
+	 * @param startCol	column index of top left corner of the rectangle
+	 * @param width	width of the rectangle
+	 * @param height	height of the rectangle
+	 */
+	void apply(PixelBuffer src, PixelBuffer dst, int startRow, int startCol, int width,
+			   int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		//the part of the picture the rectangle reads. Past its sides that are inside the
+		//picture the boxes read wrong values, but those only reach getRadius() pixels in
+		int reach = getRadius();
+		int top = Math.max(0, startRow - reach);
+		int left = Math.max(0, startCol - reach);
+		int rows = Math.min(src.getHeight(), startRow + height + reach) - top;
+		int cols = Math.min(src.getWidth(), startCol + width + reach) - left;
+		int[][] planes = new int[3][rows * cols];
+		int[][] sums = new int[3][rows * cols];
+		inBands(rows, 1, (from, to) -> {
+			int[] pixels = new int[cols];
+			for (int r = from; r < to; r++) {
+				src.getRow(top + r, left, cols, pixels, 0);
+				for (int c = 0; c < cols; c++) {
+					planes[0][r * cols + c] = PixelBuffer.red(pixels[c]);
+					planes[1][r * cols + c] = PixelBuffer.green(pixels[c]);
+					planes[2][r * cols + c] = PixelBuffer.blue(pixels[c]);
+				}
+			}
+		});
+		for (int radius: this.radii) {
+			if (radius == 0) {
+				continue;
+			}
+			inBands(rows, 1, (from, to) -> {
+				for (int p = 0; p < 3; p++) {
+					rowSums(planes[p], sums[p], cols, radius, from, to);
+				}
+			});
+			inBands(rows, 2 * radius + 1, (from, to) -> {
+				for (int p = 0; p < 3; p++) {
+					columnMeans(sums[p], planes[p], cols, rows, radius, from, to);
+				}
+			});
+		}
+		int rowOffset = startRow - top;
+		int colOffset = startCol - left;
+		inBands(height, 1, (from, to) -> {
+			int[] out = new int[width];
+			for (int r = from; r < to; r++) {
+				int base = (rowOffset + r) * cols + colOffset;
+				for (int c = 0; c < width; c++) {
+					out[c] = (planes[0][base + c] << 16) | (planes[1][base + c] << 8) |
+							 planes[2][base + c];
+				}
+				dst.setRow(startRow + r, startCol, width, out, 0);
+			}
+		});
+	}
+
+	/** Method that sums every pixel of a band of rows with the radius pixels on each side of
+	 * 	it in its row, sliding one running sum along each row
+	 * @param in	one channel of the picture, cols values per row
+	 * @param out	the sums, written at the same indices
+	 * @param cols	values per row
+	 * @param radius	radius of the box
+	 * @param from	first row of the band
+	 * @param to	row after the last row of the band
+	 */
+	private static void rowSums(int[] in, int[] out, int cols, int radius, int from, int to) {
+		int last = cols - 1;
+		for (int r = from; r < to; r++) {
+			int base = r * cols;
+			int sum = 0;
+			for (int k = -radius; k <= radius; k++) {
+				sum += in[base + Math.min(last, Math.max(0, k))];
+			}
+			//only the ends of a row read past its edges, the middle slides without clamping
+			int inside = Math.max(0, Math.min(cols, cols - radius - 1) - radius);
+			int c = 0;
+			for (; c < Math.min(radius, cols); c++) {
+				out[base + c] = sum;
+				sum += in[base + Math.min(last, c + radius + 1)] - in[base];
+			}
+			for (int end = c + inside; c < end; c++) {
+				out[base + c] = sum;
+				sum += in[base + c + radius + 1] - in[base + c - radius];
+			}
+			for (; c < cols; c++) {
+				out[base + c] = sum;
+				sum += in[base + last] - in[base + Math.max(0, c - radius)];
+			}
+		}
+	}
+
+	/** Method that sums the row sums of a band of rows with the radius rows above and below,
+	 * 	sliding one running sum per column down the band, and divides by the area of the box
+	 * @param in	the row sums, cols values per row
+	 * @param out	the means rounded to the nearest value, written at the same indices
+	 * @param cols	values per row
+	 * @param rows	number of rows
+	 * @param radius	radius of the box
+	 * @param from	first row of the band
+	 * @param to	row after the last row of the band
+	 */
+	private static void columnMeans(int[] in, int[] out, int cols, int rows, int radius, int from,
+									int to) {
+		int last = rows - 1;
+		long area = (2L * radius + 1) * (2L * radius + 1);
+		long[] sums = new long[cols];
+		for (int k = from - radius; k <= from + radius; k++) {
+			int base = Math.min(last, Math.max(0, k)) * cols;
+			for (int c = 0; c < cols; c++) {
+				sums[c] += in[base + c];
+			}
+		}
+		for (int r = from; r < to; r++) {
+			int base = r * cols;
+			int enter = Math.min(last, r + radius + 1) * cols;
+			int leave = Math.max(0, r - radius) * cols;
+			for (int c = 0; c < cols; c++) {
+				out[base + c] = (int) ((sums[c] + area / 2) / area);
+				sums[c] += in[enter + c] - in[leave + c];
+			}
+		}
+	}
+
+	/** The work done on one band of rows
+	 */
+	private interface Band {
+		void run(int from, int to);
+	}
+
+	/** Method that splits rows into bands and runs them on all cores
+	 * @param rows	number of rows
+	 * @param minHeight	fewest rows in a band, for work that costs this many rows to start
+	 * @param band	the work done on each band
+	 */
+	private static void inBands(int rows, int minHeight, Band band) {
+		int bands = Math.max(1, Math.min(rows / minHeight,
+										 ForkJoinPool.getCommonPoolParallelism() * BANDS_PER_THREAD));
+		int bandHeight = (rows + bands - 1) / bands;
+		IntStream.range(0, bands).parallel().forEach(b -> {
+			int from = b * bandHeight;
+			int to = Math.min(rows, from + bandHeight);
+			if (from < to) {
+				band.run(from, to);
+			}
+		});
+	}
+}
@@ -0,0 +1,77 @@
+/**File: BufferPool.java
+ * Desc:
+ * 		Keeps released picture buffers for reuse, so threads that render many pictures of the same
+ * 		size into buffers of their own, as QuadTree's renderers that take a buffer allow, don't
+ * 		allocate a full picture for every render. Buffers are kept per size, up to a limit each,
+ * 		and handed out with whatever they last held: every renderer writes every pixel, so they
+ * 		are not cleared. Safe to use from many threads.
+ */
+
+package quadtree;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class BufferPool {
+	private final int maxPerSize;
+	//released buffers kept for each size, the rest are left to the garbage collector
+	private final Map<Long, ArrayDeque<PixelBuffer>> free = new HashMap<Long, ArrayDeque<PixelBuffer>>();
+	//released buffers by width << 32 | height
+	private long allocated;
+	//buffers made because none of the size was free
+	private long reused;
+	//buffers handed out again
+
+	/** Constructor for a pool
+	 * @param maxPerSize	released buffers kept for each size, about the number of threads that
+	 * 					render at the same time
+	 */
+	public BufferPool(int maxPerSize) {
+		if (maxPerSize < 0) {
+			throw new IllegalArgumentException("negative pool size " + maxPerSize);
+		}
+		this.maxPerSize = maxPerSize;
+	}
+
+	/** Method that hands out a buffer of a size, a released one if there is any
+	 * @param width	width of the picture
+	 * @param height	height of the picture
+	 * @return	the buffer, holding whatever was last drawn into it
+	 */
+	public PixelBuffer acquire(int width, int height) {
+		synchronized (this) {
+			ArrayDeque<PixelBuffer> buffers = this.free.get(key(width, height));
+			if (buffers != null && !buffers.isEmpty()) {
+				this.reused++;
+				return buffers.pop();
+			}
+			this.allocated++;
+		}
+		return PixelBuffer.allocate(width, height);
+	}
+
+	/** Method that gives a buffer back. It must not be used after, by the caller or by an
+	 * 	image from its toImage()
+	 * @param buffer	a buffer from acquire
+	 */
+	public synchronized void release(PixelBuffer buffer) {
+		ArrayDeque<PixelBuffer> buffers = this.free.computeIfAbsent(
+			key(buffer.getWidth(), buffer.getHeight()), size -> new ArrayDeque<PixelBuffer>());
+		if (buffers.size() < this.maxPerSize) {
+			buffers.push(buffer);
+		}
+	}
+
+	private static long key(int width, int height) {
+		return ((long) width << 32) | height;
+	}
+
+	public synchronized long getAllocated() {
+		return this.allocated;
+	}
+
+	public synchronized long getReused() {
+		return this.reused;
+	}
+}
@@ -0,0 +1,345 @@
+/**File: CompactQuadTree.java
+ * Desc:
+ * 		A quadtree that builds the same tree as QuadTree but keeps its nodes in parallel int
+ * 		arrays indexed by node id instead of one Node object per quadrant. A node only stores
+ * 		its average color and the id of its first child; the four children of a node always get
+ * 		consecutive ids (nWest, nEast, sWest, sEast) and the geometry and level of a node are
+ * 		recomputed from its parent while walking down the tree.
+ *
+ * 		Memory per node, measured with JOL by benchmarks' NodeFootprint on a 2048 by 2048
+ * 		natural picture at threshold 100 (28,957 nodes), JDK 17 with compressed oops:
+ * 			QuadTree.Node	node object + int[3] avgColor = 96 bytes, ~10,900 nodes/MB
+ * 			CompactQuadTree	4 byte avgColor + 4 byte firstChild = 8 bytes, ~131,000 nodes/MB
+ *
+ * 		Every renderer of QuadTree that does not depend on a render threshold is here too, and
+ * 		draws the same picture.
+ */
+
+package quadtree;
+
+import java.util.Arrays;
+
+public class CompactQuadTree {
+	private static final int BYTES_PER_NODE = 8;
+	//bytes of the node arrays used by one node
+	private static final int INITIAL_CAPACITY = 1024;
+	//number of nodes the node arrays start with
+	private static final int LEAF = -1;
+	//firstChild of a node that has no children
+	private static final int MAX_DEPTH = 32;
+	//deeper than any tree over a picture with int dimensions can be
+	private int threshold;
+	//threshold when creating the quadtree
+	private int width;
+	//width of the picture
+	private int height;
+	//height of the picture
+	private int size;
+	//size(area) of the picture
+	private int numNodes;
+	//the number of nodes in the tree
+	private int numLeaves;
+	//the number of leaves in the tree
+	private int depth;
+	//the level of the deepest node
+	private int[] avgColor;
+	//the average color of each node packed as 0xRRGGBB
+	private int[] firstChild;
+	//the id of the north west child of each node, LEAF for leaves
+	private PixelBuffer colors;
+	//the rgb values of the original picture
+	private PixelBuffer modified;
+	//the rgb values for the modified image
+	private IntegralImage integral;
+	//summed-area tables of colors, used for the mean and error of each node
+
+	/** Receives the nodes visited by a traversal along with their geometry
+	 */
+	public interface NodeConsumer {
+		/**
+		 * @param node	id of the node
+		 * @param startRow	row index of top left corner
+		 * @param startCol	column index of top left corner
+		 * @param width	width of quadrant
+		 * @param height	height of quadrant
+		 * @param level	the level the node is at in the tree (starts at 0)
+		 */
+		void accept(int node, int startRow, int startCol, int width, int height, int level);
+	}
+
+	public CompactQuadTree(PixelBuffer colors) {
+		this.width = colors.getWidth();
+		this.height = colors.getHeight();
+		this.size = this.width*this.height;
+		this.colors = colors;
+		this.integral = new IntegralImage(colors);
+		this.modified = PixelBuffer.allocate(this.width, this.height);
+		this.threshold = 100;
+		reset(INITIAL_CAPACITY);
+	}
+
+	/** Method that throws away every node but the root
+	 * @param capacity	the number of nodes the node arrays have room for
+	 */
+	private void reset(int capacity) {
+		this.avgColor = new int[capacity];
+		this.firstChild = new int[capacity];
+		this.avgColor[0] = this.integral.meanRGB(0, 0, this.width, this.height);
+		this.firstChild[0] = LEAF;
+		this.numNodes = 1;
+		this.numLeaves = 1;
+		this.depth = 0;
+	}
+
+	/** Method that adds a node to the end of the node arrays
+	 * @return	the id of the new node
+	 */
+	private int addNode(int startRow, int startCol, int width, int height) {
+		if (this.numNodes == this.avgColor.length) {
+			this.avgColor = Arrays.copyOf(this.avgColor, this.numNodes * 2);
+			this.firstChild = Arrays.copyOf(this.firstChild, this.numNodes * 2);
+		}
+		int node = this.numNodes++;
+		this.avgColor[node] = this.integral.meanRGB(startRow, startCol, width, height);
+		this.firstChild[node] = LEAF;
+		return node;
+	}
+
+	/** Method that builds the tree. Nodes are split with the same rule as QuadTree.insert(), so
+	 * 	both build the same tree for the same threshold
+	 */
+	public void insert() {
+		reset(Math.max(INITIAL_CAPACITY, this.avgColor.length));
+		//stack of nodes still to be split, with the geometry of each
+		int capacity = 3 * MAX_DEPTH + 1;
+		int[] ids = new int[capacity];
+		int[] rows = new int[capacity];
+		int[] cols = new int[capacity];
+		int[] widths = new int[capacity];
+		int[] heights = new int[capacity];
+		int[] levels = new int[capacity];
+		ids[0] = 0;
+		rows[0] = 0;
+		cols[0] = 0;
+		widths[0] = this.width;
+		heights[0] = this.height;
+		levels[0] = 0;
+		int top = 1;
+		while (top > 0) {
+			top--;
+			int node = ids[top];
+			int row = rows[top];
+			int col = cols[top];
+			int w = widths[top];
+			int h = heights[top];
+			int level = levels[top];
+			if (h <= 1 || w <= 1 ||
+				this.integral.avgSqError(row, col, w, h, this.avgColor[node]) <= this.threshold) {
+				continue;
+			}
+			int midWidth = w / 2;
+			int midHeight = h / 2;
+			int child = addNode(row, col, midWidth, midHeight);
+			addNode(row, col + midWidth, w - midWidth, midHeight);
+			addNode(row + midHeight, col, midWidth, h - midHeight);
+			addNode(row + midHeight, col + midWidth, w - midWidth, h - midHeight);
+			this.firstChild[node] = child;
+			this.numLeaves += 3; //lose itself as leaf and gain 4 new leaves
+			this.depth = Math.max(this.depth, level + 1);
+			for (int i = 0; i < 4; i++) {
+				ids[top] = child + i;
+				rows[top] = i < 2 ? row : row + midHeight;
+				cols[top] = i % 2 == 0 ? col : col + midWidth;
+				widths[top] = i % 2 == 0 ? midWidth : w - midWidth;
+				heights[top] = i < 2 ? midHeight : h - midHeight;
+				levels[top] = level + 1;
+				top++;
+			}
+		}
+		//give back the room the arrays grew past the final node count
+		this.avgColor = Arrays.copyOf(this.avgColor, this.numNodes);
+		this.firstChild = Arrays.copyOf(this.firstChild, this.numNodes);
+	}
+
+	/** Method that walks the tree depth first and hands nodes to a consumer
+	 * @param level	the level of the nodes to report, or -1 to report the leaves
+	 * @param leavesAbove	also report the leaves above the level
+	 * @param consumer	receives the reported nodes
+	 */
+	private void walk(int level, boolean leavesAbove, NodeConsumer consumer) {
+		int capacity = 3 * this.depth + 1;
+		int[] ids = new int[capacity];
+		int[] rows = new int[capacity];
+		int[] cols = new int[capacity];
+		int[] widths = new int[capacity];
+		int[] heights = new int[capacity];
+		int[] levels = new int[capacity];
+		ids[0] = 0;
+		rows[0] = 0;
+		cols[0] = 0;
+		widths[0] = this.width;
+		heights[0] = this.height;
+		levels[0] = 0;
+		int top = 1;
+		while (top > 0) {
+			top--;
+			int node = ids[top];
+			int row = rows[top];
+			int col = cols[top];
+			int w = widths[top];
+			int h = heights[top];
+			int nodeLevel = levels[top];
+			int child = this.firstChild[node];
+			if (level < 0 ? child == LEAF : nodeLevel == level || (leavesAbove && child == LEAF)) {
+				consumer.accept(node, row, col, w, h, nodeLevel);
+				continue;
+			}
+			if (child == LEAF) {
+				continue;
+			}
+			int midWidth = w / 2;
+			int midHeight = h / 2;
+			for (int i = 3; i >= 0; i--) {
+				ids[top] = child + i;
+				rows[top] = i < 2 ? row : row + midHeight;
+				cols[top] = i % 2 == 0 ? col : col + midWidth;
+				widths[top] = i % 2 == 0 ? midWidth : w - midWidth;
+				heights[top] = i < 2 ? midHeight : h - midHeight;
+				levels[top] = nodeLevel + 1;
+				top++;
+			}
+		}
+	}
+
+	/** Method that hands every leaf of the tree to a consumer
+	 * @param consumer	receives the leaves
+	 */
+	public void forEachLeaf(NodeConsumer consumer) {
+		walk(-1, false, consumer);
+	}
+
+	/** Method that hands every node at a level of the tree to a consumer
+	 * @param level	the requested level
+	 * @param consumer	receives the nodes
+	 */
+	public void forEachNodeAtLevel(int level, NodeConsumer consumer) {
+		walk(level, false, consumer);
+	}
+
+	/** Method that gets the leaves of the quad tree
+	 * @return	the ids of the leaf nodes of the quad tree
+	 */
+	public int[] getLeaves() {
+		int[] leaves = new int[this.numLeaves];
+		int[] count = {0};
+		forEachLeaf((node, row, col, w, h, level) -> leaves[count[0]++] = node);
+		return leaves;
+	}
+
+	/** Method that gets the nodes at the requested level of the quad tree
+	 * @param level the requested level
+	 * @return	the ids of the nodes at the requested level
+	 */
+	public int[] getNodesAtLevel(int level) {
+		int[] count = {0};
+		forEachNodeAtLevel(level, (node, row, col, w, h, nodeLevel) -> count[0]++);
+		int[] nodes = new int[count[0]];
+		count[0] = 0;
+		forEachNodeAtLevel(level, (node, row, col, w, h, nodeLevel) -> nodes[count[0]++] = node);
+		return nodes;
+	}
+
+	/** Method that gets the average color of a node
+	 * @param node	id of the node
+	 * @return	the average color packed as 0xRRGGBB
+	 */
+	public int getAvgColor(int node) {
+		return this.avgColor[node];
+	}
+
+	/** Method that fills the modified image with the average color of each leaf and outlines
+	 * 	the leaves in black
+	 */
+	public void outlineCompressed() {
+		LeafRasterizer raster = new LeafRasterizer(this.colors, this.modified,
+												   LeafRasterizer.OUTLINE_COMPRESSED, this.numLeaves);
+		forEachLeaf((node, row, col, w, h, level) -> raster.add(row, col, w, h, this.avgColor[node]));
+		raster.draw();
+	}
+
+	/** Method that fills the modified image with the original picture and outlines the leaves
+	 * 	in black
+	 */
+	public void outline() {
+		LeafRasterizer raster = new LeafRasterizer(this.colors, this.modified,
+												   LeafRasterizer.OUTLINE, this.numLeaves);
+		forEachLeaf((node, row, col, w, h, level) -> raster.add(row, col, w, h, this.avgColor[node]));
+		raster.draw();
+	}
+
+	/** Method that fills the modified image with the average colors of the tree cut at the level
+	 * 	whose compression level is just above the requested one. Leaves above that level are
+	 * 	drawn with their own color, as in QuadTree.compressToLevel
+	 * @param compressionLevel	the compression level asked for
+	 */
+	public void compressToLevel(double compressionLevel) {
+		int k = 0;
+		while (Math.pow(4, k)/this.size < compressionLevel) {
+			k ++;
+		}
+		LeafRasterizer raster = new LeafRasterizer(this.colors, this.modified, LeafRasterizer.FILL,
+												   this.numLeaves);
+		walk(k, true, (node, row, col, w, h, level) -> raster.add(row, col, w, h, this.avgColor[node]));
+		raster.draw();
+	}
+
+	/** Method that fills the modified image with the edges of the original picture, white
+	 * 	where every channel of the convolved pixel is above QuadTree's edge threshold
+	 */
+	public void edgeDetection() {
+		QuadTree.EDGE.apply(this.colors, this.modified, null, QuadTree.EDGE_THRESHOLD);
+	}
+
+	public void sharpen() {
+		QuadTree.SHARPEN.apply(this.colors, this.modified, null, null);
+	}
+
+	public void grayScale() {
+		FilterPipeline.mapRows(this.colors, this.modified, PixelFunction.grayScale());
+	}
+
+	public void noChange() {
+		FilterPipeline.mapRows(this.colors, this.modified, PixelFunction.identity());
+	}
+
+	/** Method that gets the number of bytes held by the node arrays
+	 * @return	the footprint of the nodes in bytes
+	 */
+	public long nodeBytes() {
+		return (long) this.avgColor.length * BYTES_PER_NODE;
+	}
+
+	public int[][][] getModified() {
+		return this.modified.toArray();
+	}
+
+	public PixelBuffer getModifiedBuffer() {
+		return this.modified;
+	}
+
+	public int getNumLeaves() {
+		return this.numLeaves;
+	}
+
+	public int getNumNodes() {
+		return this.numNodes;
+	}
+
+	public int getDepth() {
+		return this.depth;
+	}
+
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+}
@@ -0,0 +1,377 @@
+/**File: Convolution.java
+ * Desc:
+ * 		Convolution of a picture with an odd n by n kernel. The picture is first copied into
+ * 		edge padded channel planes, so pixels near the border read the clamped edge pixels without
+ * 		any checks in the inner loop. Kernels that are the outer product of a column and a row are
+ * 		run as two 1-D passes, and rows are split into bands that run on all cores.
+ */
+
+package quadtree;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+final class Convolution {
+	private static final double SEPARABLE_TOLERANCE = 1e-9;
+	//largest difference between a kernel weight and column[i] * row[j] for a separable kernel
+	private static final int BANDS_PER_THREAD = 4;
+	//row bands handed to each thread of the pool, so uneven bands still balance out
+	private final int size;
+	//width and height of the kernel
+	private final int radius;
+	//number of pixels the kernel reaches past its center
+	private final double[] weights;
+	//non zero weights of the kernel
+	private final int[] taps;
+	//row and column of each weight in the kernel, packed as row * size + col
+	private final double[] column;
+	//vertical factor of a separable kernel, null if the kernel is not separable
+	private final double[] row;
+	//horizontal factor of a separable kernel, null if the kernel is not separable
+
+	/** Constructor for a convolution
+	 * @param kernel	n by n kernel of weights where n is odd
+	 */
+	Convolution(double[][] kernel) {
+		this.size = kernel.length;
+		if (this.size % 2 == 0) {
+			throw new IllegalArgumentException("kernel size must be odd: " + this.size);
+		}
+		for (double[] kernelRow: kernel) {
+			if (kernelRow.length != this.size) {
+				throw new IllegalArgumentException("kernel must be square");
+			}
+		}
+		this.radius = this.size / 2;
+		int count = 0;
+		for (double[] kernelRow: kernel) {
+			for (double weight: kernelRow) {
+				if (weight != 0.0) {
+					count++;
+				}
+			}
+		}
+		this.weights = new double[count];
+		this.taps = new int[count];
+		int t = 0;
+		for (int i = 0; i < this.size; i++) {
+			for (int j = 0; j < this.size; j++) {
+				if (kernel[i][j] != 0.0) {
+					this.weights[t] = kernel[i][j];
+					this.taps[t] = i * this.size + j;
+					t++;
+				}
+			}
+		}
+		double[][] factors = factor(kernel);
+		this.column = factors == null ? null : factors[0];
+		this.row = factors == null ? null : factors[1];
+	}
+
+	/** Method that splits a kernel into a column and a row whose outer product is the kernel
+	 * @param kernel	the kernel
+	 * @return	{column, row}, or null if the kernel is not separable
+	 */
+	private static double[][] factor(double[][] kernel) {
+		int n = kernel.length;
+		//pivot on the biggest weight so the division below is well conditioned
+		int pivotRow = 0;
+		int pivotCol = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (Math.abs(kernel[i][j]) > Math.abs(kernel[pivotRow][pivotCol])) {
+					pivotRow = i;
+					pivotCol = j;
+				}
+			}
+		}
+		double pivot = kernel[pivotRow][pivotCol];
+		if (pivot == 0.0) {
+			return null;
+		}
+		double[] column = new double[n];
+		double[] row = new double[n];
+		for (int i = 0; i < n; i++) {
+			column[i] = kernel[i][pivotCol];
+			row[i] = kernel[pivotRow][i] / pivot;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (Math.abs(kernel[i][j] - column[i] * row[j]) > SEPARABLE_TOLERANCE) {
+					return null;
+				}
+			}
+		}
+		return new double[][] {column, row};
+	}
+
+	int getRadius() {
+		return this.radius;
+	}
+
+	boolean isSeparable() {
+		return this.row != null;
+	}
+
+	/** Method that convolves a picture into another buffer of the same size. Each channel is
+	 * 	rounded and clamped to 0-255 before each row of packed pixels is handed to post. The
+	 * 	picture is fully loaded before anything is written, so dst may be src
+	 * @param src	the picture to convolve
+	 * @param dst	the buffer the result is written into
+	 * @param pre	function applied to every pixel of src as it is loaded, or null
+	 * @param post	function applied to every packed output pixel, or null to write them as is
+	 */
+	void apply(PixelBuffer src, PixelBuffer dst, PixelFunction pre, PixelFunction post) {
+		apply(src, dst, pre, post, 0, 0, src.getWidth(), src.getHeight());
+	}
+
+	/** Method that convolves a rectangle of a picture into the same rectangle of another buffer.
+	 * 	Pixels outside the rectangle are read as they are, and past the edge of the picture as the
+	 * 	clamped edge pixels, so the rectangle comes out the same as in a convolution of the whole
+	 * 	picture
+	 * @param src	the picture to convolve
+	 * @param dst	the buffer the result is written into
+	 * @param pre	function applied to every pixel of src as it is loaded, or null
+	 * @param post	function applied to every packed output pixel, or null to write them as is
+	 * @param startRow	row index of top left corner of the rectangle
+	 * @param startCol	column index of top left corner of the rectangle
+	 * @param width	width of the rectangle
+	 * @param height	height of the rectangle
+	 */
+	void apply(PixelBuffer src, PixelBuffer dst, PixelFunction pre, PixelFunction post,
+			   int startRow, int startCol, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		Planes padded = new Planes(src, this.radius, pre, startRow, startCol, width, height, true);
+		int bands = Math.min(height, ForkJoinPool.getCommonPoolParallelism() * BANDS_PER_THREAD);
+		int bandHeight = (height + bands - 1) / bands;
+		IntStream.range(0, bands).parallel().forEach(band -> {
+			int bandStart = band * bandHeight;
+			int bandEnd = Math.min(height, bandStart + bandHeight);
+			if (bandStart < bandEnd) {
+				applyBand(padded, dst, post, bandStart, bandEnd);
+			}
+		});
+	}
+
+	/** Method that convolves a rectangle like apply, but on the calling thread, for callers
+	 * 	that split the work into many small rectangles and spread those over the cores
+	 * @param src	the picture to convolve
+	 * @param dst	the buffer the result is written into
+	 * @param pre	function applied to every pixel of src as it is loaded, or null
+	 * @param post	function applied to every packed output pixel, or null to write them as is
+	 * @param startRow	row index of top left corner of the rectangle
+	 * @param startCol	column index of top left corner of the rectangle
+	 * @param width	width of the rectangle
+	 * @param height	height of the rectangle
+	 */
+	void applyInline(PixelBuffer src, PixelBuffer dst, PixelFunction pre, PixelFunction post,
+					 int startRow, int startCol, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		Planes padded = new Planes(src, this.radius, pre, startRow, startCol, width, height, false);
+		applyBand(padded, dst, post, 0, height);
+	}
+
+	/** Method that gets the output pixel of a neighbourhood where every pixel is the same. The
+	 * 	weights are summed in the same order as the convolution loops, so it is the exact pixel
+	 * 	they write there
+	 * @param rgb	the pixel of the neighbourhood packed as 0xRRGGBB
+	 * @param pre	function applied to the pixel first, or null
+	 * @param post	function applied to the output pixel, or null
+	 * @return	the output pixel packed as 0xRRGGBB
+	 */
+	int flat(int rgb, PixelFunction pre, PixelFunction post) {
+		if (pre != null) {
+			rgb = pre.apply(rgb);
+		}
+		int out = finish(flat(PixelBuffer.red(rgb)), flat(PixelBuffer.green(rgb)),
+						 flat(PixelBuffer.blue(rgb)));
+		return post == null ? out : post.apply(out);
+	}
+
+	/** Method that gets the weighted sum of a neighbourhood of one channel value
+	 * @param value	the value of the channel
+	 * @return	the weighted sum, before rounding
+	 */
+	private double flat(int value) {
+		double sum = 0.0;
+		if (isSeparable()) {
+			double rowSum = 0.0;
+			for (double weight: this.row) {
+				rowSum += weight * value;
+			}
+			for (double weight: this.column) {
+				sum += weight * rowSum;
+			}
+		} else {
+			for (double weight: this.weights) {
+				sum += weight * value;
+			}
+		}
+		return sum;
+	}
+
+	private void applyBand(Planes padded, PixelBuffer dst, PixelFunction post, int startRow,
+						   int endRow) {
+		if (isSeparable()) {
+			applySeparable(padded, dst, post, startRow, endRow);
+		} else {
+			applyDirect(padded, dst, post, startRow, endRow);
+		}
+	}
+
+	/** Method that convolves a band of rows with the full kernel
+	 * @param padded	the edge padded picture
+	 * @param dst	the buffer the result is written into
+	 * @param post	function applied to every output pixel, or null
+	 * @param startRow	first row of the band, counted from the top of the rectangle
+	 * @param endRow	row after the last row of the band
+	 */
+	private void applyDirect(Planes padded, PixelBuffer dst, PixelFunction post,
+							 int startRow, int endRow) {
+		int width = padded.width;
+		int[] offsets = new int[this.taps.length];
+		for (int t = 0; t < this.taps.length; t++) {
+			offsets[t] = (this.taps[t] / this.size) * padded.stride + this.taps[t] % this.size;
+		}
+		int[] out = new int[width];
+		for (int r = startRow; r < endRow; r++) {
+			//index of the top left corner of the window of the first pixel of the row
+			int base = r * padded.stride;
+			for (int c = 0; c < width; c++) {
+				double red = 0.0;
+				double green = 0.0;
+				double blue = 0.0;
+				for (int t = 0; t < offsets.length; t++) {
+					int i = base + c + offsets[t];
+					double weight = this.weights[t];
+					red += weight * padded.red[i];
+					green += weight * padded.green[i];
+					blue += weight * padded.blue[i];
+				}
+				out[c] = finish(red, green, blue);
+			}
+			if (post != null) {
+				post.applyRow(out, 0, width);
+			}
+			dst.setRow(padded.startRow + r, padded.startCol, width, out, 0);
+		}
+	}
+
+	/** Method that convolves a band of rows with a separable kernel, first along the rows of
+	 * 	the band and the padding rows it reaches, then down the columns
+	 * @param padded	the edge padded picture
+	 * @param dst	the buffer the result is written into
+	 * @param post	function applied to every output pixel, or null
+	 * @param startRow	first row of the band, counted from the top of the rectangle
+	 * @param endRow	row after the last row of the band
+	 */
+	private void applySeparable(Planes padded, PixelBuffer dst, PixelFunction post,
+								int startRow, int endRow) {
+		int width = padded.width;
+		int rows = endRow - startRow + 2 * this.radius;
+		double[] red = new double[rows * width];
+		double[] green = new double[rows * width];
+		double[] blue = new double[rows * width];
+		for (int r = 0; r < rows; r++) {
+			int base = (startRow + r) * padded.stride;
+			for (int c = 0; c < width; c++) {
+				double sumRed = 0.0;
+				double sumGreen = 0.0;
+				double sumBlue = 0.0;
+				for (int j = 0; j < this.size; j++) {
+					int i = base + c + j;
+					double weight = this.row[j];
+					sumRed += weight * padded.red[i];
+					sumGreen += weight * padded.green[i];
+					sumBlue += weight * padded.blue[i];
+				}
+				red[r * width + c] = sumRed;
+				green[r * width + c] = sumGreen;
+				blue[r * width + c] = sumBlue;
+			}
+		}
+		int[] out = new int[width];
+		for (int r = startRow; r < endRow; r++) {
+			int base = (r - startRow) * width;
+			for (int c = 0; c < width; c++) {
+				double sumRed = 0.0;
+				double sumGreen = 0.0;
+				double sumBlue = 0.0;
+				for (int i = 0; i < this.size; i++) {
+					int k = base + i * width + c;
+					double weight = this.column[i];
+					sumRed += weight * red[k];
+					sumGreen += weight * green[k];
+					sumBlue += weight * blue[k];
+				}
+				out[c] = finish(sumRed, sumGreen, sumBlue);
+			}
+			if (post != null) {
+				post.applyRow(out, 0, width);
+			}
+			dst.setRow(padded.startRow + r, padded.startCol, width, out, 0);
+		}
+	}
+
+	private static int finish(double red, double green, double blue) {
+		return PixelBuffer.pack((int) Math.round(red), (int) Math.round(green),
+								(int) Math.round(blue));
+	}
+
+	/** The channels of a rectangle of a picture in three separate arrays, with radius more
+	 * 	pixels on every side. Those are read from the picture around the rectangle, and past the
+	 * 	edge of the picture repeat its edge pixels
+	 */
+	private static final class Planes {
+		private final int startRow;
+		//row of the picture the rectangle starts at
+		private final int startCol;
+		//column of the picture the rectangle starts at
+		private final int width;
+		//width of the rectangle, without padding
+		private final int stride;
+		//width of a padded row
+		private final int[] red;
+		private final int[] green;
+		private final int[] blue;
+
+		Planes(PixelBuffer src, int radius, PixelFunction pre, int startRow, int startCol,
+			   int width, int height, boolean parallel) {
+			this.startRow = startRow;
+			this.startCol = startCol;
+			this.width = width;
+			this.stride = width + 2 * radius;
+			int rows = height + 2 * radius;
+			int srcWidth = src.getWidth();
+			int srcHeight = src.getHeight();
+			//columns of the picture the padded rows read, clamped to its edges
+			int firstCol = Math.max(0, startCol - radius);
+			int lastCol = Math.min(srcWidth, startCol + width + radius);
+			this.red = new int[rows * this.stride];
+			this.green = new int[rows * this.stride];
+			this.blue = new int[rows * this.stride];
+			IntStream padRows = IntStream.range(0, rows);
+			(parallel ? padRows.parallel() : padRows).forEach(r -> {
+				int[] pixels = new int[lastCol - firstCol];
+				//rows above and below the picture repeat its first and last row
+				int srcRow = Math.min(srcHeight - 1, Math.max(0, startRow + r - radius));
+				src.getRow(srcRow, firstCol, pixels.length, pixels, 0);
+				if (pre != null) {
+					pre.applyRow(pixels, 0, pixels.length);
+				}
+				int base = r * this.stride;
+				for (int c = 0; c < this.stride; c++) {
+					int srcCol = Math.min(srcWidth - 1, Math.max(0, startCol + c - radius));
+					int rgb = pixels[srcCol - firstCol];
+					this.red[base + c] = PixelBuffer.red(rgb);
+					this.green[base + c] = PixelBuffer.green(rgb);
+					this.blue[base + c] = PixelBuffer.blue(rgb);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**File: FilterPipeline.java
+ * Desc:
+ * 		A chain of filters run over a picture with as few passes as possible. Point operations
+ * 		next to each other are fused into one function. Point operations before a convolution
+ * 		are run while the convolution loads its padded copy, and point operations after it are
+ * 		run in its output loop, so a chain with one convolution is a single pass over the pixels
+ * 		and a chain of point operations alone is a single pass too.
+ */
+
+package quadtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+public class FilterPipeline {
+	private final List<Convolution> convolutions;
+	//the convolutions of the chain, in order
+	private final List<PixelFunction> points;
+	//the fused point operations before the first convolution, between each pair of
+	//convolutions and after the last one, so always one more than convolutions. null if none
+
+	public FilterPipeline() {
+		this.convolutions = new ArrayList<Convolution>();
+		this.points = new ArrayList<PixelFunction>();
+		this.points.add(null);
+	}
+
+	/** Method that adds a point operation to the end of the chain
+	 * @param function	the operation
+	 * @return	this pipeline
+	 */
+	public FilterPipeline point(PixelFunction function) {
+		int last = this.points.size() - 1;
+		PixelFunction fused = this.points.get(last);
+		this.points.set(last, fused == null ? function : fused.andThen(function));
+		return this;
+	}
+
+	/** Method that adds a convolution to the end of the chain
+	 * @param kernel	n by n kernel of weights where n is odd
+	 * @return	this pipeline
+	 */
+	public FilterPipeline convolve(double[][] kernel) {
+		return convolve(new Convolution(kernel));
+	}
+
+	FilterPipeline convolve(Convolution convolution) {
+		this.convolutions.add(convolution);
+		this.points.add(null);
+		return this;
+	}
+
+	/** Method that gets the number of passes over the pixels the chain takes
+	 * @return	one per convolution, or one if there are only point operations
+	 */
+	public int passes() {
+		return Math.max(1, this.convolutions.size());
+	}
+
+	/** Method that gets how far the chain reads around an output pixel
+	 * @return	the sum of the radii of the convolutions
+	 */
+	int radius() {
+		int radius = 0;
+		for (Convolution convolution: this.convolutions) {
+			radius += convolution.getRadius();
+		}
+		return radius;
+	}
+
+	/** Method that runs the chain
+	 * @param src	the picture to filter. It is not changed
+	 * @param dst	the buffer the result is written into, the same size as src
+	 */
+	public void apply(PixelBuffer src, PixelBuffer dst) {
+		apply(src, dst, 0, 0, src.getWidth(), src.getHeight());
+	}
+
+	/** Method that runs the chain over a rectangle of the picture. Each convolution but the last
+	 * 	covers the rectangle grown by the radius of the convolutions after it, so the rectangle
+	 * 	comes out the same as in a run over the whole picture
+	 * @param src	the picture to filter. It is not changed
+	 * @param dst	the buffer the result is written into, the same size as src
+	 * @param startRow	row index of top left corner of the rectangle
+	 * @param startCol	column index of top left corner of the rectangle
+	 * @param width	width of the rectangle
+	 * @param height	height of the rectangle
+	 */
+	public void apply(PixelBuffer src, PixelBuffer dst, int startRow, int startCol, int width,
+					  int height) {
+		if (this.convolutions.isEmpty()) {
+			PixelFunction function = this.points.get(0);
+			mapRows(src, dst, function == null ? PixelFunction.identity() : function,
+					startRow, startCol, width, height);
+			return;
+		}
+		//radius the rectangle of each convolution is grown by
+		int grow = 0;
+		for (int i = 1; i < this.convolutions.size(); i++) {
+			grow += this.convolutions.get(i).getRadius();
+		}
+		PixelBuffer in = src;
+		//intermediate results between convolutions, used in turn
+		PixelBuffer[] temps = new PixelBuffer[2];
+		for (int i = 0; i < this.convolutions.size(); i++) {
+			PixelBuffer out;
+			if (i == this.convolutions.size() - 1) {
+				out = dst;
+			} else {
+				if (temps[i % 2] == null) {
+					temps[i % 2] = PixelBuffer.allocate(src.getWidth(), src.getHeight());
+				}
+				out = temps[i % 2];
+			}
+			//point operations before the first convolution go into its load, the rest into the
+			//output loop of the convolution before them
+			PixelFunction pre = i == 0 ? this.points.get(0) : null;
+			PixelFunction post = this.points.get(i + 1);
+			int top = Math.max(0, startRow - grow);
+			int left = Math.max(0, startCol - grow);
+			int bottom = Math.min(src.getHeight(), startRow + height + grow);
+			int right = Math.min(src.getWidth(), startCol + width + grow);
+			this.convolutions.get(i).apply(in, out, pre, post, top, left, right - left, bottom - top);
+			if (i + 1 < this.convolutions.size()) {
+				grow -= this.convolutions.get(i + 1).getRadius();
+			}
+			in = out;
+		}
+	}
+
+	/** Method that runs one point operation over every pixel, in row bands on all cores
+	 * @param src	the picture to read
+	 * @param dst	the buffer to write, may be src
+	 * @param function	the operation
+	 */
+	static void mapRows(PixelBuffer src, PixelBuffer dst, PixelFunction function) {
+		mapRows(src, dst, function, 0, 0, src.getWidth(), src.getHeight());
+	}
+
+	/** Method that runs one point operation over a rectangle, in row bands on all cores
+	 * @param src	the picture to read
+	 * @param dst	the buffer to write, may be src
+	 * @param function	the operation
+	 * @param startRow	row index of top left corner of the rectangle
+	 * @param startCol	column index of top left corner of the rectangle
+	 * @param width	width of the rectangle
+	 * @param height	height of the rectangle
+	 */
+	static void mapRows(PixelBuffer src, PixelBuffer dst, PixelFunction function, int startRow,
+						int startCol, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		int bands = Math.min(height, ForkJoinPool.getCommonPoolParallelism() * 4);
+		int bandHeight = (height + bands - 1) / bands;
+		IntStream.range(0, bands).parallel().forEach(band -> {
+			int[] row = new int[width];
+			for (int r = band * bandHeight; r < Math.min(height, (band + 1) * bandHeight); r++) {
+				src.getRow(startRow + r, startCol, width, row, 0);
+				function.applyRow(row, 0, width);
+				dst.setRow(startRow + r, startCol, width, row, 0);
+			}
+		});
+	}
+}
@@ -0,0 +1,115 @@
+/**File: FrozenTree.java
+ * Desc:
+ * 		A built quadtree that can only be rendered, for handing one tree to many threads. It
+ * 		keeps the render threshold, leaf count and name the tree had when it was frozen, and
+ * 		has only the renderers that draw into a buffer of the caller's own, so no holder can
+ * 		build, update or cut the tree again under a render that is running. Any number of
+ * 		threads may render the same frozen tree at the same time.
+ *
+ * 		The tree frozen must not be changed by whoever made it afterwards, so freeze a tree
+ * 		once it is built and stop using it.
+ */
+
+package quadtree;
+
+public final class FrozenTree {
+	final QuadTree tree;
+	//the built tree, read by TreeCache to spill it
+	private final double cut;
+	//render threshold the tree is drawn at
+	private final int numLeaves;
+	//the number of leaves at that threshold
+	private final String imageName;
+	//the name of the picture
+
+	/** Constructor for a frozen tree
+	 * @param tree	a built tree, not changed by anyone after this
+	 */
+	public FrozenTree(QuadTree tree) {
+		this.tree = tree;
+		this.cut = tree.getRenderThreshold();
+		this.numLeaves = tree.getNumLeaves();
+		this.imageName = tree.getImageName();
+	}
+
+	public void outline(PixelBuffer dst) {
+		this.tree.outline(dst, this.cut, this.numLeaves);
+	}
+
+	public void outlineCompressed(PixelBuffer dst) {
+		this.tree.outlineCompressed(dst, this.cut, this.numLeaves);
+	}
+
+	public void compressToLevel(double compressionLevel, PixelBuffer dst) {
+		this.tree.compressToLevel(compressionLevel, dst, this.cut);
+	}
+
+	public void convolution(double[][] kernel, PixelBuffer dst) {
+		this.tree.convolution(kernel, dst);
+	}
+
+	public void convolution(double[][] kernel, double maxError, PixelBuffer dst) {
+		this.tree.convolveLeaves(new Convolution(kernel), null, maxError, dst, this.cut, this.numLeaves);
+	}
+
+	public void sharpen(PixelBuffer dst) {
+		this.tree.sharpen(dst);
+	}
+
+	public void sharpen(double maxError, PixelBuffer dst) {
+		this.tree.convolveLeaves(QuadTree.SHARPEN, null, maxError, dst, this.cut, this.numLeaves);
+	}
+
+	public void edgeDetection(PixelBuffer dst) {
+		this.tree.edgeDetection(dst);
+	}
+
+	public void edgeDetection(double maxError, PixelBuffer dst) {
+		this.tree.convolveLeaves(QuadTree.EDGE, QuadTree.EDGE_THRESHOLD, maxError, dst, this.cut,
+								 this.numLeaves);
+	}
+
+	public void filter(FilterPipeline pipeline, PixelBuffer dst) {
+		this.tree.filter(pipeline, dst);
+	}
+
+	public void boxBlur(int radius, PixelBuffer dst) {
+		this.tree.boxBlur(radius, dst);
+	}
+
+	public void gaussianBlur(double sigma, PixelBuffer dst) {
+		this.tree.gaussianBlur(sigma, dst);
+	}
+
+	public void pointFilter(PixelFunction function, PixelBuffer dst) {
+		this.tree.pointFilter(function, dst);
+	}
+
+	public void grayScale(PixelBuffer dst) {
+		this.tree.grayScale(dst);
+	}
+
+	public void noChange(PixelBuffer dst) {
+		this.tree.noChange(dst);
+	}
+
+	public int getWidth() {
+		return this.tree.getWidth();
+	}
+
+	public int getHeight() {
+		return this.tree.getHeight();
+	}
+
+	public int getNumLeaves() {
+		return this.numLeaves;
+	}
+
+	public double getRenderThreshold() {
+		return this.cut;
+	}
+
+	public String getImageName() {
+		return this.imageName;
+	}
+}
@@ -0,0 +1,647 @@
+/**File: ImageServer.java
+ * Desc:
+ * 		A long running http server that builds a quadtree of each posted picture, renders a filter
+ * 		and sends the picture back, so callers pay for JVM startup, JIT warmup and ImageIO plugin
+ * 		scanning once instead of on every picture. It uses the JDK's com.sun.net.httpserver only,
+ * 		and listens on the loopback address unless told to bind a wider one.
+ *
+ * 		Requests are admitted up to a fixed number running plus a fixed number waiting. The http
+ * 		dispatcher thread only hands each exchange to the admission threads, which make that
+ * 		check, and a request over the limit is answered at once with 503 and a Retry-After
+ * 		estimated from recent latencies, so load above what the workers keep up with never piles
+ * 		up in memory. Bodies are limited too: a Content-Length over the limit is answered with 413
+ * 		before admission, and a body without one with 413 once that many bytes were read. So are
+ * 		pictures, by the size in their header before they are decoded. OutOfMemoryError is not
+ * 		caught, since the other requests of the JVM may have failed with it too. Turned away
+ * 		requests have what already arrived of their body drained, up to a bound, and their
+ * 		connection closed after the answer. Admitted requests run on virtual threads when the JVM
+ * 		has them and on a fixed pool otherwise. Each reads its whole body first, and a semaphore
+ * 		then lets only the running limit decode, build, render and encode at the same time, so a
+ * 		client slow to send or to read never holds a running slot.
+ *
+ * 		POST /process?op=edge&threshold=1000&format=png with the picture as the body. op is one of
+ * 		edge, sharpen, gray, outline, outlineCompressed, compress, blur or gauss. Optional
+ * 		parameters: leaves and budgetMs build the tree best first under a leaf count and a time
+ * 		budget, flat lets edge and sharpen fill the inside of leaves up to that error instead of
+ * 		convolving it, and radius and sigma size blur and gauss, 2 and 2.0 if not given.
+ * 		GET /stats gives the counters, the queue depth and latency percentiles, one per line.
+ *
+ * 		Trees are rendered into buffers taken from a pool rather than into a picture of their own,
+ * 		so each running request reuses the output buffer of an earlier one of the same size. With
+ * 		a TreeCache, a picture posted again is not built again, and a filter asked for again is
+ * 		not rendered again, whatever the file it came in. Requests for other filters of a cached
+ * 		tree render it at the same time. Requests with a budgetMs bypass the cache, since how far
+ * 		their build gets depends on the load at the time.
+ */
+
+package quadtree;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+public class ImageServer {
+	private static final int LATENCY_WINDOW = 1024;
+	//latencies of the most recent requests the percentiles are taken over
+	public static final long DEFAULT_MAX_BODY = 64L << 20;
+	//largest request body in bytes when none is given
+	public static final long DEFAULT_MAX_PIXELS = 1L << 24;
+	//largest picture in pixels when none is given, about 700 MB of rasters and tables
+	private static final int DRAIN_BYTES = 64 << 10;
+	//most of a turned away body read before the connection is closed instead
+	private static final int ADMITTING_THREADS = 2;
+	//admission threads when the JVM has no virtual threads
+	private final HttpServer server;
+	//the http server, dispatching on a single thread of its own
+	private final ExecutorService admission;
+	//admits or turns away the requests the dispatcher hands over, and answers /stats
+	private final ExecutorService workers;
+	//runs the admitted requests
+	private final long maxBodyBytes;
+	//largest request body accepted, in bytes
+	private final long maxPixels;
+	//largest picture decoded, in pixels
+	private final int maxRunning;
+	//requests built and rendered at the same time
+	private final Semaphore admitted;
+	//one permit per request running or waiting, taken without blocking
+	private final Semaphore running;
+	//one permit per request building or rendering
+	private final TreeCache cache;
+	//built trees and rendered pictures of earlier requests, null to build every request anew
+	private final BufferPool buffers;
+	//output buffers of requests that are not cached
+	private final AtomicInteger waiting = new AtomicInteger();
+	//admitted requests not running yet
+	private final AtomicLong accepted = new AtomicLong();
+	//requests admitted since start
+	private final AtomicLong rejected = new AtomicLong();
+	//requests turned away with 503 since start
+	private final AtomicLong tooLarge = new AtomicLong();
+	//requests turned away with 413 since start
+	private final AtomicLong completed = new AtomicLong();
+	//requests answered with a picture since start
+	private final AtomicLong failed = new AtomicLong();
+	//admitted requests answered with an error since start
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	//ring of the latest latencies in nanoseconds, from admission to the last byte sent
+	private long recorded;
+	//latencies recorded since start, the next one goes at recorded % LATENCY_WINDOW
+
+	/** Constructor for a server. It does not listen until start is called
+	 * @param port	the port to listen on, 0 for any free port
+	 * @param maxRunning	requests built and rendered at the same time
+	 * @param maxWaiting	admitted requests that may wait for a running slot
+	 * @throws IOException	if the port can't be bound
+	 */
+	public ImageServer(int port, int maxRunning, int maxWaiting) throws IOException {
+		this(port, maxRunning, maxWaiting, null);
+	}
+
+	/** Constructor for a server that keeps trees and pictures of earlier requests in a cache
+	 * @param port	the port to listen on, 0 for any free port
+	 * @param maxRunning	requests built and rendered at the same time
+	 * @param maxWaiting	admitted requests that may wait for a running slot
+	 * @param cache	the cache, or null for none
+	 * @throws IOException	if the port can't be bound
+	 */
+	public ImageServer(int port, int maxRunning, int maxWaiting, TreeCache cache) throws IOException {
+		this(port, maxRunning, maxWaiting, cache, DEFAULT_MAX_BODY);
+	}
+
+	/** Constructor for a server with a limit on the size of the posted pictures. It listens on
+	 * 	the loopback address only, so only processes of this machine can reach it
+	 * @param port	the port to listen on, 0 for any free port
+	 * @param maxRunning	requests built and rendered at the same time
+	 * @param maxWaiting	admitted requests that may wait for a running slot
+	 * @param cache	the cache, or null for none
+	 * @param maxBodyBytes	largest request body accepted, larger ones get 413
+	 * @throws IOException	if the port can't be bound
+	 */
+	public ImageServer(int port, int maxRunning, int maxWaiting, TreeCache cache, long maxBodyBytes)
+			throws IOException {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), maxRunning, maxWaiting, cache,
+			 maxBodyBytes, DEFAULT_MAX_PIXELS);
+	}
+
+	/** Constructor for a server listening on a given address. Anything wider than the loopback
+	 * 	address lets other machines post pictures, so it has to be asked for
+	 * @param address	the address and port to listen on, port 0 for any free port
+	 * @param maxRunning	requests built and rendered at the same time
+	 * @param maxWaiting	admitted requests that may wait for a running slot
+	 * @param cache	the cache, or null for none
+	 * @param maxBodyBytes	largest request body accepted, larger ones get 413
+	 * @param maxPixels	largest picture decoded, larger ones get 413. A picture takes about 40
+	 * 					bytes of heap per pixel while it is built and rendered
+	 * @throws IOException	if the address can't be bound
+	 */
+	public ImageServer(InetSocketAddress address, int maxRunning, int maxWaiting, TreeCache cache,
+					   long maxBodyBytes, long maxPixels) throws IOException {
+		if (maxRunning < 1 || maxWaiting < 0) {
+			throw new IllegalArgumentException("need a running request and no negative queue");
+		}
+		if (maxBodyBytes < 1 || maxBodyBytes > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("the body limit must be positive and under 2 GB");
+		}
+		if (maxPixels < 1) {
+			throw new IllegalArgumentException("the pixel limit must be positive");
+		}
+		this.maxRunning = maxRunning;
+		this.cache = cache;
+		this.maxBodyBytes = maxBodyBytes;
+		this.maxPixels = maxPixels;
+		this.buffers = new BufferPool(maxRunning);
+		this.admitted = new Semaphore(maxRunning + maxWaiting);
+		this.running = new Semaphore(maxRunning);
+		this.workers = newWorkers(maxRunning + maxWaiting);
+		this.admission = newWorkers(ADMITTING_THREADS);
+		this.server = HttpServer.create(address, 0);
+		this.server.setExecutor(this.admission);
+		this.server.createContext("/process", this::admit);
+		this.server.createContext("/stats", this::stats);
+	}
+
+	/** Method that makes the executor of the admitted requests or of admission. Virtual threads
+	 * 	are looked up by name, since they are not in every JDK this package builds on. Waiting
+	 * 	requests read their bodies, so the fixed pool of the admitted ones has a thread for every
+	 * 	admission permit, and the running semaphore bounds the heavy work. Admission only drains
+	 * 	a bounded part of a body and sends a short answer, so a couple of threads keep up with it
+	 * @param threads	tasks that run at the same time
+	 * @return	a virtual thread per task executor if the JVM has one, a fixed pool otherwise
+	 */
+	private static ExecutorService newWorkers(int threads) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+													 .invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(threads);
+		}
+	}
+
+	public void start() {
+		this.server.start();
+	}
+
+	/** Method that stops listening, waits up to a delay for exchanges in progress and stops the
+	 * 	workers
+	 * @param delaySeconds	the longest to wait for exchanges in progress
+	 */
+	public void stop(int delaySeconds) {
+		this.server.stop(delaySeconds);
+		this.admission.shutdown();
+		this.workers.shutdown();
+		try {
+			this.admission.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+			this.workers.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	/** Method that admits a request or turns it away, on an admission thread. An admitted
+	 * 	request is handed to the workers, which read its body and answer it
+	 * @param exchange	the request
+	 */
+	private void admit(HttpExchange exchange) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			turnAway(exchange, 405, "POST a picture to /process");
+			return;
+		}
+		if (contentLength(exchange) > this.maxBodyBytes) {
+			this.tooLarge.incrementAndGet();
+			turnAway(exchange, 413, "body over " + this.maxBodyBytes + " bytes");
+			return;
+		}
+		if (!this.admitted.tryAcquire()) {
+			this.rejected.incrementAndGet();
+			exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfterSeconds()));
+			turnAway(exchange, 503, "busy, try again later");
+			return;
+		}
+		this.accepted.incrementAndGet();
+		this.waiting.incrementAndGet();
+		long start = System.nanoTime();
+		try {
+			this.workers.execute(() -> process(exchange, start));
+		} catch (RuntimeException e) {
+			//the workers were shut down
+			this.waiting.decrementAndGet();
+			this.admitted.release();
+			turnAway(exchange, 503, "shutting down");
+		}
+	}
+
+	/** Method that gets the length a request says its body has
+	 * @param exchange	the request
+	 * @return	the Content-Length, -1 if there is none or it is not a number
+	 */
+	private static long contentLength(HttpExchange exchange) {
+		String length = exchange.getRequestHeaders().getFirst("Content-Length");
+		try {
+			return length == null ? -1 : Long.parseLong(length.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/** Method that answers a request without reading its body. What of the body has already
+	 * 	arrived, up to DRAIN_BYTES, is read and dropped without waiting for more, so a client
+	 * 	holding its body back can't hold an admission thread, and the connection is closed after
+	 * 	the answer instead of being kept for another request
+	 * @param exchange	the request
+	 * @param status	the http status
+	 * @param message	the text of the response
+	 */
+	private static void turnAway(HttpExchange exchange, int status, String message) throws IOException {
+		InputStream body = exchange.getRequestBody();
+		byte[] skipped = new byte[8192];
+		int left = DRAIN_BYTES;
+		try {
+			int read = 0;
+			while (left > 0 && read >= 0 && body.available() > 0) {
+				read = body.read(skipped, 0, Math.min(left, skipped.length));
+				left -= Math.max(read, 0);
+			}
+		} catch (IOException e) {
+			//the connection is closed below anyway
+		}
+		exchange.getResponseHeaders().set("Connection", "close");
+		send(exchange, status, "text/plain", text(message));
+	}
+
+	/** Method that runs an admitted request on a worker: reads the body, waits for a running
+	 * 	slot, decodes the body, builds and renders the tree, or takes them from the cache, encodes
+	 * 	the picture and sends it. Only the work between the decode and the encode holds the slot,
+	 * 	so clients that are slow to send or to read hold a waiting place and nothing else
+	 * @param exchange	the request
+	 * @param start	System.nanoTime() when it was admitted
+	 */
+	private void process(HttpExchange exchange, long start) {
+		boolean queued = true;
+		boolean holding = false;
+		try {
+			Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+			String format = params.getOrDefault("format", "png");
+			byte[] body = readBody(exchange);
+			this.running.acquireUninterruptibly();
+			holding = true;
+			this.waiting.decrementAndGet();
+			queued = false;
+			PixelBuffer pixels = PixelBuffer.wrap(decode(body));
+			String name = exchange.getRequestURI().getPath();
+			FrozenTree tree;
+			PixelBuffer picture;
+			PixelBuffer pooled = null;
+			//a tree cut off by a deadline depends on the load it was built under, so it is not cached
+			if (this.cache == null || params.containsKey("budgetMs")) {
+				QuadTree built = new QuadTree(pixels);
+				built.setImageName(name);
+				build(built, params);
+				tree = new FrozenTree(built);
+				pooled = this.buffers.acquire(tree.getWidth(), tree.getHeight());
+				picture = pooled;
+				render(tree, params, picture);
+			} else {
+				String key = TreeCache.key(pixels, buildParams(params));
+				tree = this.cache.tree(key, pixels, threshold(params), t -> {
+					t.setImageName(name);
+					build(t, params);
+				});
+				picture = this.cache.render(key, renderParams(params), tree,
+											(t, dst) -> render(t, params, dst));
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try {
+				if (!ImageIO.write(picture.toImage(), format, out)) {
+					throw new IllegalArgumentException("no writer for format " + format);
+				}
+			} finally {
+				if (pooled != null) {
+					this.buffers.release(pooled);
+				}
+			}
+			this.running.release();
+			holding = false;
+			exchange.getResponseHeaders().set("X-Leaves", Integer.toString(tree.getNumLeaves()));
+			send(exchange, 200, "image/" + format, out.toByteArray());
+			this.completed.incrementAndGet();
+		} catch (RequestTooLarge e) {
+			this.tooLarge.incrementAndGet();
+			fail(exchange, 413, e);
+		} catch (Exception e) {
+			fail(exchange, e instanceof IllegalArgumentException ? 400 : 500, e);
+		} finally {
+			//an error is not answered, but its connection is not left open either
+			exchange.close();
+			if (queued) {
+				this.waiting.decrementAndGet();
+			}
+			if (holding) {
+				this.running.release();
+			}
+			this.admitted.release();
+			record(System.nanoTime() - start);
+		}
+	}
+
+	/** Method that decodes a posted picture. Its size is read from its header first, so a
+	 * 	picture over the pixel limit is turned away before any of it is decoded, however well its
+	 * 	body compressed
+	 * @param body	the body of the request
+	 * @return	the picture
+	 * @throws RequestTooLarge	if the picture has more pixels than the limit
+	 * @throws IOException	if the picture can't be decoded
+	 */
+	private BufferedImage decode(byte[] body) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(body))) {
+			Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+			if (readers == null || !readers.hasNext()) {
+				throw new IllegalArgumentException("body is not a picture ImageIO can read");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				if ((long) width * height > this.maxPixels) {
+					throw new RequestTooLarge(width + "x" + height + " picture over " + this.maxPixels +
+											  " pixels");
+				}
+				return reader.read(0);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/** Method that reads the whole body of a request into memory, before the request takes a
+	 * 	running slot. The body is left for send to close, which only drains a bounded part of
+	 * 	what is left of a body over the limit
+	 * @param exchange	the request
+	 * @return	the body
+	 * @throws RequestTooLarge	once the body passes the body limit
+	 * @throws IOException	if the body can't be read
+	 */
+	private byte[] readBody(HttpExchange exchange) throws IOException {
+		long declared = contentLength(exchange);
+		ByteArrayOutputStream body = new ByteArrayOutputStream(declared > 0 ? (int) declared : 8192);
+		InputStream in = exchange.getRequestBody();
+		byte[] chunk = new byte[8192];
+		int read;
+		while ((read = in.read(chunk)) >= 0) {
+			if (body.size() + (long) read > this.maxBodyBytes) {
+				throw new RequestTooLarge("body over " + this.maxBodyBytes + " bytes");
+			}
+			body.write(chunk, 0, read);
+		}
+		return body.toByteArray();
+	}
+
+	/** Method that builds a tree at the threshold of a request, best first if the request
+	 * 	limits the leaves or the time
+	 * @param tree	a tree that has not been built yet
+	 * @param params	the query parameters of the request
+	 */
+	private static void build(QuadTree tree, Map<String, String> params) {
+		PhaseEvent event = PhaseEvent.begin("build", tree.getImageName());
+		tree.setThreshold(threshold(params));
+		if (params.containsKey("leaves") || params.containsKey("budgetMs")) {
+			int leaves = params.containsKey("leaves") ? Integer.parseInt(params.get("leaves"))
+													  : Integer.MAX_VALUE;
+			long budget = params.containsKey("budgetMs")
+						  ? TimeUnit.MILLISECONDS.toNanos(Long.parseLong(params.get("budgetMs")))
+						  : Long.MAX_VALUE;
+			tree.insertBestFirst(leaves, 0.0, budget);
+		} else {
+			tree.insert();
+		}
+		event.finish((long) tree.getWidth() * tree.getHeight());
+	}
+
+	private static int threshold(Map<String, String> params) {
+		return Integer.parseInt(params.getOrDefault("threshold", "1000"));
+	}
+
+	/** Method that names the parameters a request builds its tree with, for the cache key.
+	 * 	Requests with a budgetMs never reach the cache
+	 * @param params	the query parameters of the request
+	 * @return	the build parameters, the same for requests that build the same tree
+	 */
+	private static String buildParams(Map<String, String> params) {
+		return "threshold=" + threshold(params) + ",leaves=" + params.getOrDefault("leaves", "");
+	}
+
+	/** Method that names the parameters a request renders with, for the cache key
+	 * @param params	the query parameters of the request
+	 * @return	the render parameters, the same for requests that render the same picture
+	 */
+	private static String renderParams(Map<String, String> params) {
+		return "op=" + params.getOrDefault("op", "edge") + ",flat=" + params.getOrDefault("flat", "") +
+			   ",radius=" + params.getOrDefault("radius", "") + ",sigma=" + params.getOrDefault("sigma", "");
+	}
+
+	/** Method that renders the filter a request asks for into a buffer
+	 * @param tree	the built tree
+	 * @param params	the query parameters of the request
+	 * @param dst	the buffer, the size of the picture
+	 */
+	private static void render(FrozenTree tree, Map<String, String> params, PixelBuffer dst) {
+		PhaseEvent event = PhaseEvent.begin("render", tree.getImageName());
+		String op = params.getOrDefault("op", "edge");
+		double flat = params.containsKey("flat") ? Double.parseDouble(params.get("flat")) : -1.0;
+		switch (op) {
+			case "edge":
+				if (flat >= 0) {
+					tree.edgeDetection(flat, dst);
+				} else {
+					tree.edgeDetection(dst);
+				}
+				break;
+			case "sharpen":
+				if (flat >= 0) {
+					tree.sharpen(flat, dst);
+				} else {
+					tree.sharpen(dst);
+				}
+				break;
+			case "gray":
+				tree.grayScale(dst);
+				break;
+			case "outline":
+				tree.outline(dst);
+				break;
+			case "outlineCompressed":
+				tree.outlineCompressed(dst);
+				break;
+			case "compress":
+				tree.compressToLevel(1.0, dst);
+				break;
+			case "blur":
+				tree.boxBlur(Integer.parseInt(params.getOrDefault("radius", "2")), dst);
+				break;
+			case "gauss":
+				tree.gaussianBlur(Double.parseDouble(params.getOrDefault("sigma", "2.0")), dst);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown op " + op);
+		}
+		event.finish((long) tree.getWidth() * tree.getHeight());
+	}
+
+	/** Method that answers GET /stats with one "name value" line per counter
+	 * @param exchange	the request
+	 */
+	private void stats(HttpExchange exchange) throws IOException {
+		long[] window = latencyWindow();
+		StringBuilder text = new StringBuilder();
+		text.append("accepted ").append(this.accepted.get()).append('\n');
+		text.append("rejected ").append(this.rejected.get()).append('\n');
+		text.append("too_large ").append(this.tooLarge.get()).append('\n');
+		text.append("completed ").append(this.completed.get()).append('\n');
+		text.append("failed ").append(this.failed.get()).append('\n');
+		text.append("running ").append(this.maxRunning - this.running.availablePermits()).append('\n');
+		text.append("queue_depth ").append(this.waiting.get()).append('\n');
+		text.append("latency_samples ").append(window.length).append('\n');
+		for (double p: new double[] {50, 90, 99}) {
+			text.append(String.format("latency_p%.0f_ms %.1f%n", p, percentile(window, p) / 1e6));
+		}
+		text.append(String.format("latency_max_ms %.1f%n",
+								  window.length == 0 ? 0.0 : window[window.length - 1] / 1e6));
+		if (this.cache != null) {
+			text.append(this.cache);
+		}
+		send(exchange, 200, "text/plain", text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Method that estimates how long a turned away request should wait: the time the requests
+	 * 	ahead of it take to drain through the running slots at the median latency
+	 * @return	seconds, at least 1
+	 */
+	private long retryAfterSeconds() {
+		double median = percentile(latencyWindow(), 50);
+		double drain = median * (this.waiting.get() + this.maxRunning) / this.maxRunning;
+		return Math.max(1, (long) Math.ceil(drain / 1e9));
+	}
+
+	private synchronized void record(long nanos) {
+		this.latencies[(int) (this.recorded % LATENCY_WINDOW)] = nanos;
+		this.recorded++;
+	}
+
+	/** Method that copies the recorded latencies of the window
+	 * @return	the latencies in nanoseconds, sorted
+	 */
+	private synchronized long[] latencyWindow() {
+		long[] window = Arrays.copyOf(this.latencies, (int) Math.min(this.recorded, LATENCY_WINDOW));
+		Arrays.sort(window);
+		return window;
+	}
+
+	/** Method that gets a percentile of sorted values by the nearest rank
+	 * @param sorted	the values, sorted
+	 * @param p	the percentile, 0 to 100
+	 * @return	the value, 0 if there are none
+	 */
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0.0;
+		}
+		int rank = (int) Math.ceil(p / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+	}
+
+	private void fail(HttpExchange exchange, int status, Throwable e) {
+		this.failed.incrementAndGet();
+		try {
+			if (status == 413) {
+				exchange.getResponseHeaders().set("Connection", "close");
+			}
+			send(exchange, status, "text/plain", text(e.toString()));
+		} catch (IOException sendFailed) {
+			exchange.close();
+		}
+	}
+
+	/** Method that sends a whole response and closes the exchange, request body included, so
+	 * 	the server can reuse or close the connection
+	 * @param exchange	the request
+	 * @param status	the http status
+	 * @param type	the content type
+	 * @param body	the body
+	 */
+	private static void send(HttpExchange exchange, int status, String type, byte[] body)
+			throws IOException {
+		try {
+			exchange.getResponseHeaders().set("Content-Type", type);
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static byte[] text(String line) {
+		return (line + "\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Method that splits a raw query string into its parameters
+	 * @param query	the query, or null
+	 * @return	the decoded parameters by name
+	 */
+	private static Map<String, String> params(String query) {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null) {
+			return params;
+		}
+		for (String pair: query.split("&")) {
+			int equals = pair.indexOf('=');
+			String name = equals < 0 ? pair : pair.substring(0, equals);
+			String value = equals < 0 ? "" : pair.substring(equals + 1);
+			try {
+				params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return params;
+	}
+
+	/** A request over the body or picture size limit, answered with 413
+	 */
+	private static final class RequestTooLarge extends IllegalArgumentException {
+		private static final long serialVersionUID = 1L;
+
+		RequestTooLarge(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/**File: IntegralImage.java
+ * Desc:
+ * 		Summed-area tables over the rgb values of a picture. Once built, the sum of every channel
+ * 		and the sum of squares of a rectangle can be read with four lookups, so the mean color and
+ * 		the square error of a quadtree node cost the same no matter how big the node is.
+ *
+ * 		When part of the picture changes, the tables are not rebuilt. The change is kept as a
+ * 		patch: a small table of the difference between the new and the old pixels over the changed
+ * 		rectangle, added to every lookup. Patches that overlap are merged, and only when they grow
+ * 		too many or too big are the tables rebuilt from the picture.
+ */
+
+package quadtree;
+
+import java.util.Arrays;
+
+final class IntegralImage {
+	private static final int MAX_PATCHES = 16;
+	//patches allowed before the tables are rebuilt, since every lookup reads all of them
+	private static final int MAX_PATCH_AREA_SHARE = 4;
+	//the tables are rebuilt once the patches cover more than 1 / this of the picture
+	private final int stride;
+	//width of a table row, one more than the width of the picture
+	private final int height;
+	//height of the picture
+	private final long[] red;
+	//summed-area table of the red channel
+	private final long[] green;
+	//summed-area table of the green channel
+	private final long[] blue;
+	//summed-area table of the blue channel
+	private final long[] squares;
+	//summed-area table of r*r + g*g + b*b
+	private Patch[] patches;
+	//changes since the tables were built, added to every lookup
+
+	/** Builds the tables for a picture. Entry (row, col) of a table holds the sum of every pixel
+	 * 	above and to the left of (row, col), so row 0 and column 0 are all zeros
+	 * @param colors	the rgb values of the picture
+	 */
+	IntegralImage(PixelBuffer colors) {
+		this.height = colors.getHeight();
+		this.stride = colors.getWidth() + 1;
+		int tableSize = (this.height + 1) * this.stride;
+		this.red = new long[tableSize];
+		this.green = new long[tableSize];
+		this.blue = new long[tableSize];
+		this.squares = new long[tableSize];
+		build(colors);
+	}
+
+	/** Fills the tables from a picture and drops every patch
+	 * @param colors	the rgb values of the picture
+	 */
+	private void build(PixelBuffer colors) {
+		int width = this.stride - 1;
+		int[] row = new int[width];
+		this.patches = new Patch[0];
+		for (int h = 0; h < this.height; h++) {
+			//running sums of the current row, added onto the row above
+			long rowRed = 0;
+			long rowGreen = 0;
+			long rowBlue = 0;
+			long rowSquares = 0;
+			int above = h * this.stride + 1;
+			int here = above + this.stride;
+			colors.getRow(h, 0, width, row, 0);
+			for (int w = 0; w < width; w++) {
+				int r = PixelBuffer.red(row[w]);
+				int g = PixelBuffer.green(row[w]);
+				int b = PixelBuffer.blue(row[w]);
+				rowRed += r;
+				rowGreen += g;
+				rowBlue += b;
+				rowSquares += r * r + g * g + b * b;
+				this.red[here + w] = this.red[above + w] + rowRed;
+				this.green[here + w] = this.green[above + w] + rowGreen;
+				this.blue[here + w] = this.blue[above + w] + rowBlue;
+				this.squares[here + w] = this.squares[above + w] + rowSquares;
+			}
+		}
+	}
+
+	/** Sum of a table over a rectangle
+	 * @param table	the summed-area table to read
+	 * @param startRow	row index of top left corner
+	 * @param startCol	column index of top left corner
+	 * @param width	width of the rectangle
+	 * @param height	height of the rectangle
+	 * @return	the sum of the table's channel over the rectangle
+	 */
+	private long sum(long[] table, int startRow, int startCol, int width, int height) {
+		int top = startRow * this.stride + startCol;
+		int bottom = top + height * this.stride;
+		long sum = table[bottom + width] - table[bottom] - table[top + width] + table[top];
+		for (Patch patch: this.patches) {
+			sum += patch.sum(patch.table(this, table), startRow, startCol, width, height);
+		}
+		return sum;
+	}
+
+	/** Sum of a table over a rectangle, without the patches
+	 */
+	private long baseSum(long[] table, int startRow, int startCol, int width, int height) {
+		int top = startRow * this.stride + startCol;
+		int bottom = top + height * this.stride;
+		return table[bottom + width] - table[bottom] - table[top + width] + table[top];
+	}
+
+	/** Brings the tables up to date after the pixels of a rectangle of the picture changed. The
+	 * 	rectangle and every patch it touches are merged into one patch of the difference between
+	 * 	the picture and the built tables, so the cost depends on the size of the change and not
+	 * 	on the size of the picture, until the patches get too many or too big
+	 * @param colors	the picture, already holding the new pixels
+	 * @param startRow	row index of top left corner of the changed rectangle
+	 * @param startCol	column index of top left corner of the changed rectangle
+	 * @param width	width of the changed rectangle
+	 * @param height	height of the changed rectangle
+	 */
+	void update(PixelBuffer colors, int startRow, int startCol, int width, int height) {
+		int endRow = startRow + height;
+		int endCol = startCol + width;
+		Patch[] kept = new Patch[this.patches.length];
+		int count = 0;
+		long area = 0;
+		//absorbing a patch grows the rectangle, which may then touch patches already passed over
+		boolean grew = true;
+		while (grew) {
+			grew = false;
+			count = 0;
+			area = 0;
+			for (Patch patch: this.patches) {
+				if (patch.startRow < endRow && startRow < patch.startRow + patch.height &&
+					patch.startCol < endCol && startCol < patch.startCol + patch.width) {
+					if (patch.startRow < startRow || patch.startCol < startCol ||
+						patch.startRow + patch.height > endRow || patch.startCol + patch.width > endCol) {
+						startRow = Math.min(startRow, patch.startRow);
+						startCol = Math.min(startCol, patch.startCol);
+						endRow = Math.max(endRow, patch.startRow + patch.height);
+						endCol = Math.max(endCol, patch.startCol + patch.width);
+						grew = true;
+					}
+				} else {
+					kept[count++] = patch;
+					area += (long) patch.width * patch.height;
+				}
+			}
+		}
+		area += (long) (endRow - startRow) * (endCol - startCol);
+		if (count + 1 > MAX_PATCHES || area * MAX_PATCH_AREA_SHARE > (long) this.height * (this.stride - 1)) {
+			build(colors);
+			return;
+		}
+		kept = Arrays.copyOf(kept, count + 1);
+		kept[count] = new Patch(colors, startRow, startCol, endCol - startCol, endRow - startRow);
+		this.patches = kept;
+	}
+
+	/** The difference between the picture and the built tables over a rectangle, as summed-area
+	 * 	tables of its own. Entry (row, col) holds the sum of the difference above and to the left
+	 * 	of (row, col) inside the rectangle, so a lookup outside the rectangle reads the nearest
+	 * 	edge of the patch
+	 */
+	private final class Patch {
+		private final int startRow;
+		private final int startCol;
+		private final int width;
+		private final int height;
+		private final long[] red;
+		private final long[] green;
+		private final long[] blue;
+		private final long[] squares;
+
+		Patch(PixelBuffer colors, int startRow, int startCol, int width, int height) {
+			this.startRow = startRow;
+			this.startCol = startCol;
+			this.width = width;
+			this.height = height;
+			int patchStride = width + 1;
+			int tableSize = (height + 1) * patchStride;
+			this.red = new long[tableSize];
+			this.green = new long[tableSize];
+			this.blue = new long[tableSize];
+			this.squares = new long[tableSize];
+			IntegralImage tables = IntegralImage.this;
+			int[] row = new int[width];
+			for (int h = 0; h < height; h++) {
+				long rowRed = 0;
+				long rowGreen = 0;
+				long rowBlue = 0;
+				long rowSquares = 0;
+				int above = h * patchStride + 1;
+				int here = above + patchStride;
+				colors.getRow(startRow + h, startCol, width, row, 0);
+				for (int w = 0; w < width; w++) {
+					//the pixel the built tables still hold
+					long oldRed = tables.baseSum(tables.red, startRow + h, startCol + w, 1, 1);
+					long oldGreen = tables.baseSum(tables.green, startRow + h, startCol + w, 1, 1);
+					long oldBlue = tables.baseSum(tables.blue, startRow + h, startCol + w, 1, 1);
+					int r = PixelBuffer.red(row[w]);
+					int g = PixelBuffer.green(row[w]);
+					int b = PixelBuffer.blue(row[w]);
+					rowRed += r - oldRed;
+					rowGreen += g - oldGreen;
+					rowBlue += b - oldBlue;
+					rowSquares += r * r + g * g + b * b -
+								  (oldRed * oldRed + oldGreen * oldGreen + oldBlue * oldBlue);
+					this.red[here + w] = this.red[above + w] + rowRed;
+					this.green[here + w] = this.green[above + w] + rowGreen;
+					this.blue[here + w] = this.blue[above + w] + rowBlue;
+					this.squares[here + w] = this.squares[above + w] + rowSquares;
+				}
+			}
+		}
+
+		/** The patch table that goes with one of the image's tables
+		 */
+		long[] table(IntegralImage tables, long[] table) {
+			if (table == tables.red) {
+				return this.red;
+			} else if (table == tables.green) {
+				return this.green;
+			} else if (table == tables.blue) {
+				return this.blue;
+			}
+			return this.squares;
+		}
+
+		/** Sum of the patch table at the prefix ending at (row, col) of the picture
+		 */
+		private long prefix(long[] table, int row, int col) {
+			row -= this.startRow;
+			col -= this.startCol;
+			if (row <= 0 || col <= 0) {
+				return 0;
+			}
+			return table[Math.min(row, this.height) * (this.width + 1) + Math.min(col, this.width)];
+		}
+
+		/** Sum of the patch table over a rectangle of the picture
+		 */
+		long sum(long[] table, int startRow, int startCol, int width, int height) {
+			int endRow = startRow + height;
+			int endCol = startCol + width;
+			return prefix(table, endRow, endCol) - prefix(table, endRow, startCol) -
+				   prefix(table, startRow, endCol) + prefix(table, startRow, startCol);
+		}
+	}
+
+	/** Mean rgb of a rectangle, rounded down like an integer division of the channel sums
+	 * @return avg rgb as int[3]
+	 */
+	int[] meanColor(int startRow, int startCol, int width, int height) {
+		long area = (long) width * height;
+		return new int[] {
+			(int) (sum(this.red, startRow, startCol, width, height) / area),
+			(int) (sum(this.green, startRow, startCol, width, height) / area),
+			(int) (sum(this.blue, startRow, startCol, width, height) / area)
+		};
+	}
+
+	/** Mean rgb of a rectangle, rounded down like an integer division of the channel sums
+	 * @return avg rgb packed as 0xRRGGBB
+	 */
+	int meanRGB(int startRow, int startCol, int width, int height) {
+		long area = (long) width * height;
+		return (int) (sum(this.red, startRow, startCol, width, height) / area) << 16 |
+			   (int) (sum(this.green, startRow, startCol, width, height) / area) << 8 |
+			   (int) (sum(this.blue, startRow, startCol, width, height) / area);
+	}
+
+	/** Average square error of a rectangle against a color
+	 * @param avgColor	the color the error is measured against
+	 * @return	avg rgb square error of the rectangle as double
+	 */
+	double avgSqError(int startRow, int startCol, int width, int height, int[] avgColor) {
+		return avgSqError(startRow, startCol, width, height, avgColor[0], avgColor[1], avgColor[2]);
+	}
+
+	/** Average square error of a rectangle against a packed color
+	 * @param avgRGB	the color the error is measured against, packed as 0xRRGGBB
+	 * @return	avg rgb square error of the rectangle as double
+	 */
+	double avgSqError(int startRow, int startCol, int width, int height, int avgRGB) {
+		return avgSqError(startRow, startCol, width, height, PixelBuffer.red(avgRGB),
+						  PixelBuffer.green(avgRGB), PixelBuffer.blue(avgRGB));
+	}
+
+	/** Average square error of a rectangle against the color (r, g, b). Expands sum((p - avg)^2)
+	 * 	into sum(p^2) - 2*avg*sum(p) + n*avg^2 for each channel, which is exact in integers
+	 * @return	avg rgb square error of the rectangle as double
+	 */
+	private double avgSqError(int startRow, int startCol, int width, int height,
+							  long r, long g, long b) {
+		long area = (long) width * height;
+		long error = sum(this.squares, startRow, startCol, width, height)
+				- 2 * r * sum(this.red, startRow, startCol, width, height)
+				- 2 * g * sum(this.green, startRow, startCol, width, height)
+				- 2 * b * sum(this.blue, startRow, startCol, width, height)
+				+ area * (r * r + g * g + b * b);
+		return (double) error / area;
+	}
+}
@@ -0,0 +1,83 @@
+/**File: InterleavedPixelBuffer.java
+ * Desc:
+ * 		Pixel buffer over the byte[] of an interleaved byte image such as the TYPE_3BYTE_BGR
+ * 		images ImageIO decodes jpegs into. Gray images read as r = g = b.
+ */
+
+package quadtree;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
+
+final class InterleavedPixelBuffer extends PixelBuffer {
+	private final BufferedImage image;
+	//the image whose pixels this buffer holds
+	private final byte[] data;
+	//the image's sample array
+	private final int offset;
+	//index in data of the top left pixel
+	private final int stride;
+	//distance in data between two rows
+	private final int pixelStride;
+	//distance in data between two pixels of a row
+	private final int redOffset;
+	//offset of the red sample from the start of a pixel
+	private final int greenOffset;
+	//offset of the green sample from the start of a pixel
+	private final int blueOffset;
+	//offset of the blue sample from the start of a pixel
+	private final int alphaOffset;
+	//offset of the alpha sample from the start of a pixel, -1 if there is none
+	private final boolean gray;
+	//whether the image has a single gray band
+
+	InterleavedPixelBuffer(BufferedImage image) {
+		super(image.getWidth(), image.getHeight());
+		WritableRaster raster = image.getRaster();
+		PixelInterleavedSampleModel model = (PixelInterleavedSampleModel) raster.getSampleModel();
+		DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+		int[] bands = model.getBandOffsets();
+		this.image = image;
+		this.data = buffer.getData();
+		this.stride = model.getScanlineStride();
+		this.pixelStride = model.getPixelStride();
+		this.offset = buffer.getOffset()
+					  - raster.getSampleModelTranslateY() * this.stride
+					  - raster.getSampleModelTranslateX() * this.pixelStride;
+		this.gray = bands.length == 1;
+		this.redOffset = bands[0];
+		this.greenOffset = this.gray ? bands[0] : bands[1];
+		this.blueOffset = this.gray ? bands[0] : bands[2];
+		this.alphaOffset = bands.length == 4 ? bands[3] : -1;
+	}
+
+	@Override
+	public int get(int row, int col) {
+		int i = this.offset + row * this.stride + col * this.pixelStride;
+		return ((this.data[i + this.redOffset] & 0xFF) << 16) |
+			   ((this.data[i + this.greenOffset] & 0xFF) << 8) |
+			   (this.data[i + this.blueOffset] & 0xFF);
+	}
+
+	@Override
+	public void set(int row, int col, int rgb) {
+		int i = this.offset + row * this.stride + col * this.pixelStride;
+		if (this.gray) {
+			this.data[i] = (byte) ((red(rgb) + green(rgb) + blue(rgb)) / 3);
+			return;
+		}
+		this.data[i + this.redOffset] = (byte) (rgb >> 16);
+		this.data[i + this.greenOffset] = (byte) (rgb >> 8);
+		this.data[i + this.blueOffset] = (byte) rgb;
+		if (this.alphaOffset >= 0) {
+			this.data[i + this.alphaOffset] = (byte) 0xFF;
+		}
+	}
+
+	@Override
+	public BufferedImage toImage() {
+		return this.image;
+	}
+}
@@ -0,0 +1,214 @@
+/**File: LeafConvolution.java
+ * Desc:
+ * 		Convolves a picture a leaf of its quadtree at a time, skipping the inside of flat leaves.
+ * 		A kernel window that lies inside a leaf of one color reads that color only, so its output
+ * 		is known without reading a pixel. Flat leaves are filled with that output, except for a
+ * 		strip as wide as the kernel radius along the sides they share with other leaves. A strip
+ * 		whose windows only reach pixels of the same color, as the summed-area tables tell in
+ * 		four lookups, is filled too, and the rest is convolved like every leaf that is not flat.
+ * 		Leaves never overlap, so they are handled in chunks on all cores. When so little of the
+ * 		picture is flat that most of it would be convolved anyway, one pass over the whole
+ * 		picture is run instead.
+ */
+
+package quadtree;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+final class LeafConvolution {
+	private static final int INTS_PER_LEAF = 6;
+	//startRow, startCol, width, height, fill and filled strips of each leaf
+	private static final int NOT_FLAT = -1;
+	//fill of a leaf that is convolved whole. Fills of flat leaves are the output pixel of a
+	//window of their color, and filled strips a bit for each of the top, bottom, left and right
+	//strips that only reach that color
+	private static final int MIN_CHUNK = 64;
+	//fewest leaves a parallel chunk handles, so small batches stay on one thread
+	private static final int FULL_PASS_SHARE = 2;
+	//one pass over the whole picture is run once more than 1 / this of it is left to convolve
+	private final Convolution convolution;
+	//the kernel
+	private final PixelBuffer src;
+	//the picture to convolve
+	private final PixelBuffer dst;
+	//the buffer the result is written into
+	private final PixelFunction post;
+	//function applied to every output pixel, or null
+	private final IntegralImage integral;
+	//summed-area tables of src, to tell which border strips only reach one color
+	private int[] leaves;
+	//the gathered leaves, INTS_PER_LEAF ints each
+	private int count;
+	//number of gathered leaves
+	private long convolved;
+	//number of pixels left to convolve after the flat insides are filled
+
+	/** Constructor for a leaf convolution
+	 * @param convolution	the kernel
+	 * @param src	the picture to convolve
+	 * @param dst	the buffer the result is written into, the same size as src
+	 * @param post	function applied to every output pixel, or null
+	 * @param integral	summed-area tables of src
+	 * @param capacity	number of leaves to make room for up front
+	 */
+	LeafConvolution(Convolution convolution, PixelBuffer src, PixelBuffer dst, PixelFunction post,
+					IntegralImage integral, int capacity) {
+		this.convolution = convolution;
+		this.src = src;
+		this.dst = dst;
+		this.post = post;
+		this.integral = integral;
+		this.leaves = new int[Math.max(1, capacity) * INTS_PER_LEAF];
+	}
+
+	/** Method that gathers a leaf
+	 * @param startRow	row index of top left corner
+	 * @param startCol	column index of top left corner
+	 * @param width	width of the leaf
+	 * @param height	height of the leaf
+	 * @param rgb	color of the leaf packed as 0xRRGGBB
+	 * @param flat	true if the inside of the leaf may be filled as if every pixel was rgb
+	 */
+	void add(int startRow, int startCol, int width, int height, int rgb, boolean flat) {
+		int i = this.count * INTS_PER_LEAF;
+		if (i + INTS_PER_LEAF > this.leaves.length) {
+			this.leaves = Arrays.copyOf(this.leaves, this.leaves.length * 2);
+		}
+		this.leaves[i] = startRow;
+		this.leaves[i + 1] = startCol;
+		this.leaves[i + 2] = width;
+		this.leaves[i + 3] = height;
+		this.leaves[i + 4] = NOT_FLAT;
+		this.leaves[i + 5] = 0;
+		this.count++;
+		long area = (long) width * height;
+		int radius = this.convolution.getRadius();
+		//border strips on each side, none on the edges of the picture
+		int top = startRow == 0 ? 0 : radius;
+		int left = startCol == 0 ? 0 : radius;
+		int bottom = startRow + height == this.src.getHeight() ? 0 : radius;
+		int right = startCol + width == this.src.getWidth() ? 0 : radius;
+		int innerWidth = width - left - right;
+		int innerHeight = height - top - bottom;
+		if (!flat || innerWidth <= 0 || innerHeight <= 0) {
+			this.convolved += area;
+			return;
+		}
+		this.leaves[i + 4] = this.convolution.flat(rgb, null, this.post);
+		area -= (long) innerWidth * innerHeight;
+		int[][] strips = strips(startRow, startCol, width, height, top, left, bottom, right);
+		for (int side = 0; side < strips.length; side++) {
+			int[] strip = strips[side];
+			if (uniform(strip[0], strip[1], strip[2], strip[3], rgb)) {
+				this.leaves[i + 5] |= 1 << side;
+				area -= (long) strip[2] * strip[3];
+			}
+		}
+		this.convolved += area;
+	}
+
+	/** Method that gets the border strips of a leaf
+	 * @return	{startRow, startCol, width, height} of the top, bottom, left and right strips. The
+	 * 			top and bottom ones run the whole width of the leaf
+	 */
+	private static int[][] strips(int startRow, int startCol, int width, int height, int top,
+								  int left, int bottom, int right) {
+		int innerHeight = height - top - bottom;
+		return new int[][] {
+			{startRow, startCol, width, top},
+			{startRow + height - bottom, startCol, width, bottom},
+			{startRow + top, startCol, left, innerHeight},
+			{startRow + top, startCol + width - right, right, innerHeight}
+		};
+	}
+
+	/** Method that tells if every pixel the windows of a rectangle reach is one color, which
+	 * 	holds when the square error against that color over the rectangle grown by the kernel
+	 * 	radius is 0. Empty rectangles count as uniform, there is nothing to convolve
+	 * @param rgb	the color packed as 0xRRGGBB
+	 * @return	true if the rectangle may be filled like the inside of a flat leaf
+	 */
+	private boolean uniform(int startRow, int startCol, int width, int height, int rgb) {
+		if (width <= 0 || height <= 0) {
+			return true;
+		}
+		int radius = this.convolution.getRadius();
+		int top = Math.max(0, startRow - radius);
+		int left = Math.max(0, startCol - radius);
+		int bottom = Math.min(this.src.getHeight(), startRow + height + radius);
+		int right = Math.min(this.src.getWidth(), startCol + width + radius);
+		return this.integral.avgSqError(top, left, right - left, bottom - top, rgb) == 0.0;
+	}
+
+	/** Method that tells if the leaves gathered so far still leave little enough to convolve
+	 * 	that going leaf by leaf beats one pass over the whole picture. Gathering more leaves
+	 * 	only adds to what is left, so once this is false the rest need not be gathered
+	 * @return	false if apply will run a full pass
+	 */
+	boolean skipsEnough() {
+		return this.convolved * FULL_PASS_SHARE <= (long) this.src.getWidth() * this.src.getHeight();
+	}
+
+	/** Method that convolves every gathered leaf, in chunks on all cores, and forgets them. If
+	 * 	too little was flat, the whole picture is convolved in one pass instead
+	 */
+	void apply() {
+		int total = this.count;
+		if (!skipsEnough()) {
+			this.convolution.apply(this.src, this.dst, null, this.post);
+		} else {
+			int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4,
+											  total / MIN_CHUNK));
+			int chunkSize = (total + chunks - 1) / chunks;
+			IntStream.range(0, chunks).parallel().forEach(chunk -> {
+				int end = Math.min(total, (chunk + 1) * chunkSize);
+				for (int leaf = chunk * chunkSize; leaf < end; leaf++) {
+					applyLeaf(leaf * INTS_PER_LEAF);
+				}
+			});
+		}
+		this.count = 0;
+		this.convolved = 0;
+	}
+
+	/** Method that convolves one leaf, or fills its inside and the border strips that only
+	 * 	reach its color, and convolves the other strips
+	 * @param i	index of the leaf's first int in leaves
+	 */
+	private void applyLeaf(int i) {
+		int startRow = this.leaves[i];
+		int startCol = this.leaves[i + 1];
+		int width = this.leaves[i + 2];
+		int height = this.leaves[i + 3];
+		int fill = this.leaves[i + 4];
+		if (fill == NOT_FLAT) {
+			this.convolution.applyInline(this.src, this.dst, null, this.post,
+										 startRow, startCol, width, height);
+			return;
+		}
+		int radius = this.convolution.getRadius();
+		int top = startRow == 0 ? 0 : radius;
+		int left = startCol == 0 ? 0 : radius;
+		int bottom = startRow + height == this.src.getHeight() ? 0 : radius;
+		int right = startCol + width == this.src.getWidth() ? 0 : radius;
+		fill(startRow + top, startCol + left, width - left - right, height - top - bottom, fill);
+		int[][] strips = strips(startRow, startCol, width, height, top, left, bottom, right);
+		for (int side = 0; side < strips.length; side++) {
+			int[] strip = strips[side];
+			if ((this.leaves[i + 5] & 1 << side) != 0) {
+				fill(strip[0], strip[1], strip[2], strip[3], fill);
+			} else {
+				this.convolution.applyInline(this.src, this.dst, null, this.post,
+											 strip[0], strip[1], strip[2], strip[3]);
+			}
+		}
+	}
+
+	private void fill(int startRow, int startCol, int width, int height, int rgb) {
+		for (int row = startRow; row < startRow + height; row++) {
+			this.dst.fill(row, startCol, width, rgb);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/**File: LeafRasterizer.java
+ * Desc:
+ * 		Draws the leaves of a quadtree into a picture. Leaves are gathered as flat rectangles
+ * 		first, then drawn in chunks on all cores, which is safe because leaves never overlap.
+ * 		Each leaf is drawn a row at a time with bulk fills and copies, and its outline as the
+ * 		top and bottom row plus one pixel at each end of the rows between, so no pixel is tested
+ * 		for being on the border.
+ */
+
+package quadtree;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+final class LeafRasterizer {
+	static final int FILL = 0;
+	//fill each leaf with its color
+	static final int OUTLINE = 1;
+	//outline each leaf in black and copy the original picture inside
+	static final int OUTLINE_COMPRESSED = 2;
+	//outline each leaf in black and fill the inside with its color
+	private static final int INTS_PER_LEAF = 5;
+	//startRow, startCol, width, height and color of each leaf
+	private static final int MIN_CHUNK = 256;
+	//fewest leaves a parallel chunk draws, so small batches stay on one thread
+	private final PixelBuffer colors;
+	//the original picture, read by OUTLINE
+	private final PixelBuffer target;
+	//the picture the leaves are drawn into
+	private final int style;
+	//FILL, OUTLINE or OUTLINE_COMPRESSED
+	private int[] leaves;
+	//the gathered leaves, INTS_PER_LEAF ints each
+	private int count;
+	//number of gathered leaves
+
+	/** Constructor for a rasterizer
+	 * @param colors	the original picture, read by OUTLINE
+	 * @param target	the picture the leaves are drawn into
+	 * @param style	FILL, OUTLINE or OUTLINE_COMPRESSED
+	 * @param capacity	number of leaves to make room for up front
+	 */
+	LeafRasterizer(PixelBuffer colors, PixelBuffer target, int style, int capacity) {
+		this.colors = colors;
+		this.target = target;
+		this.style = style;
+		this.leaves = new int[Math.max(1, capacity) * INTS_PER_LEAF];
+	}
+
+	/** Method that gathers a leaf to draw
+	 * @param startRow	row index of top left corner
+	 * @param startCol	column index of top left corner
+	 * @param width	width of the leaf
+	 * @param height	height of the leaf
+	 * @param rgb	color of the leaf packed as 0xRRGGBB
+	 */
+	void add(int startRow, int startCol, int width, int height, int rgb) {
+		int i = this.count * INTS_PER_LEAF;
+		if (i + INTS_PER_LEAF > this.leaves.length) {
+			this.leaves = Arrays.copyOf(this.leaves, this.leaves.length * 2);
+		}
+		this.leaves[i] = startRow;
+		this.leaves[i + 1] = startCol;
+		this.leaves[i + 2] = width;
+		this.leaves[i + 3] = height;
+		this.leaves[i + 4] = rgb;
+		this.count++;
+	}
+
+	/** Method that draws every gathered leaf, in chunks on all cores, and forgets them
+	 */
+	void draw() {
+		int total = this.count;
+		int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4,
+										  total / MIN_CHUNK));
+		int chunkSize = (total + chunks - 1) / chunks;
+		IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			//room for copying a row of the original picture, as wide as the widest leaf
+			int[] scratch = this.style == OUTLINE ? new int[this.colors.getWidth()] : null;
+			int end = Math.min(total, (chunk + 1) * chunkSize);
+			for (int leaf = chunk * chunkSize; leaf < end; leaf++) {
+				drawLeaf(leaf * INTS_PER_LEAF, scratch);
+			}
+		});
+		this.count = 0;
+	}
+
+	/** Method that draws one leaf
+	 * @param i	index of the leaf's first int in leaves
+	 * @param scratch	room for copying a row of the original picture, null unless OUTLINE
+	 */
+	private void drawLeaf(int i, int[] scratch) {
+		int startRow = this.leaves[i];
+		int startCol = this.leaves[i + 1];
+		int width = this.leaves[i + 2];
+		int height = this.leaves[i + 3];
+		int rgb = this.leaves[i + 4];
+		int endRow = startRow + height;
+		if (this.style == FILL) {
+			for (int row = startRow; row < endRow; row++) {
+				this.target.fill(row, startCol, width, rgb);
+			}
+			return;
+		}
+		//top and bottom border rows
+		this.target.fill(startRow, startCol, width, 0);
+		if (height > 1) {
+			this.target.fill(endRow - 1, startCol, width, 0);
+		}
+		int maxCol = startCol + width - 1;
+		for (int row = startRow + 1; row < endRow - 1; row++) {
+			this.target.set(row, startCol, 0);
+			this.target.set(row, maxCol, 0);
+			if (width > 2) {
+				if (this.style == OUTLINE_COMPRESSED) {
+					this.target.fill(row, startCol + 1, width - 2, rgb);
+				} else {
+					this.colors.getRow(row, startCol + 1, width - 2, scratch, 0);
+					this.target.setRow(row, startCol + 1, width - 2, scratch, 0);
+				}
+			}
+		}
+	}
+}
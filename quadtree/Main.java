@@ -1,12 +1,20 @@
 package quadtree;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.io.File;
 import java.io.FileWriter;
 import java.awt.Color;
@@ -24,8 +32,25 @@ public class Main {
 		boolean compression = false;
 		boolean edgeDetection= false;
 		boolean custom = false;
+		int blurRadius = 0;
+		double gaussSigma = 0;
+		int tileSize = 0;
+		boolean encodeTree = false;
+		int threshold = 1000;
+		boolean stats = false;
+		String batchInput = "";
+		String manifest = "";
+		String batchOutput = "";
+		int workers = Runtime.getRuntime().availableProcessors();
+		int servePort = -1;
+		int waiting = 0;
+		int cacheMb = 0;
+		int maxBodyMb = 0;
+		int maxPixelsM = 0;
+		String bind = "";
+		String spill = "";
 		String image = "";
-		String output = "";
+		String output = "out.jpg";
 
 		for (int i = 0; i < args.length; i++){
 			if (args[i].equals("-i")){
@@ -38,50 +63,204 @@ public class Main {
 			    edgeDetection = true;		// Edge detection tag found
             } else if (args[i].equals("-x")){
 			    custom = true;				// Custom filter tag found
+            } else if (args[i].equals("-blur")){
+			    blurRadius = Integer.parseInt(args[i+1]);	// Box blur of this radius
+            } else if (args[i].equals("-gauss")){
+			    gaussSigma = Double.parseDouble(args[i+1]);	// Gaussian blur of this sigma
             } else if (args[i].equals("-t")){
 			    outline = true;				// Outline tag found
+            } else if (args[i].equals("-tile")){
+			    tileSize = Integer.parseInt(args[i+1]);	// Process in tiles of this size
+            } else if (args[i].equals("-qtc")){
+			    encodeTree = true;			// Also save the tree itself, named after the output with a .qtc extension
+            } else if (args[i].equals("-threshold")){
+			    threshold = Integer.parseInt(args[i+1]);	// Threshold when building the tree
+            } else if (args[i].equals("-batch")){
+			    batchInput = args[i+1];		// Process every image in this directory
+			    batchOutput = args[i+2];	// and write the results into this one
+            } else if (args[i].equals("-manifest")){
+			    manifest = args[i+1];		// Process every image listed in this file
+			    batchOutput = args[i+2];	// and write the results into this directory
+            } else if (args[i].equals("-stats")){
+			    stats = true;				// Print phase times and the shape of the tree
+            } else if (args[i].equals("-workers")){
+			    workers = Integer.parseInt(args[i+1]);	// Threads per stage in batch mode, requests run at once when serving
+            } else if (args[i].equals("-serve")){
+			    servePort = Integer.parseInt(args[i+1]);	// Serve POST /process on this port until killed
+            } else if (args[i].equals("-queue")){
+			    waiting = Integer.parseInt(args[i+1]);	// Requests the server holds while every worker is busy
+            } else if (args[i].equals("-cache")){
+			    cacheMb = Integer.parseInt(args[i+1]);	// Megabytes of trees and pictures the server keeps
+            } else if (args[i].equals("-maxBody")){
+			    maxBodyMb = Integer.parseInt(args[i+1]);	// Largest picture in megabytes the server takes, larger get 413
+            } else if (args[i].equals("-maxPixels")){
+			    maxPixelsM = Integer.parseInt(args[i+1]);	// Largest picture in megapixels the server decodes, larger get 413
+            } else if (args[i].equals("-bind")){
+			    bind = args[i+1];			// Address the server listens on, e.g. 0.0.0.0 for every interface, loopback if not given
+            } else if (args[i].equals("-spill")){
+			    spill = args[i+1];			// Directory the server writes trees dropped from its cache to
             }
 		}
+		if (servePort >= 0){
+			// one JVM for every request, see ImageServer for the protocol
+			try {
+				TreeCache cache = cacheMb > 0 || !spill.isEmpty()
+								  ? new TreeCache(cacheMb * (1L << 20), spill.isEmpty() ? null : new File(spill))
+								  : null;
+				InetSocketAddress address = bind.isEmpty()
+											? new InetSocketAddress(InetAddress.getLoopbackAddress(), servePort)
+											: new InetSocketAddress(bind, servePort);
+				ImageServer server = new ImageServer(address, workers, waiting > 0 ? waiting : 2 * workers, cache,
+													 maxBodyMb > 0 ? maxBodyMb * (1L << 20) : ImageServer.DEFAULT_MAX_BODY,
+													 maxPixelsM > 0 ? maxPixelsM * (1L << 20) : ImageServer.DEFAULT_MAX_PIXELS);
+				server.start();
+				System.out.println("Listening on " + address.getHostString() + " port " + server.getPort());
+			} catch (IOException e){
+				throw new IllegalStateException("can't listen on port " + servePort, e);
+			}
+			return;
+		}
+		Operation operation = new Operation(threshold, outline, compression, edgeDetection, custom,
+											blurRadius, gaussSigma);
+		// the extension of -o names the format, so check it before reading or building anything
+		String outputName = new File(output).getName();
+		int dot = outputName.lastIndexOf('.');
+		if (dot <= 0 || dot == outputName.length() - 1){
+			throw new IllegalArgumentException("-o " + output + " needs an extension naming the format, e.g. out.png");
+		}
+		String format = outputName.substring(dot + 1);
+		if (!PpmFile.isPpm(output) && !ImageIO.getImageWritersByFormatName(format).hasNext()){
+			throw new IllegalArgumentException("no image writer for " + format + " files");
+		}
+
+		if (!batchInput.isEmpty() || !manifest.isEmpty()){
+			// decode, build, filter and encode overlap across images, with bounded queues between them
+			List<File> inputs;
+			try {
+				inputs = batchInput.isEmpty() ? BatchProcessor.readManifest(new File(manifest))
+											  : BatchProcessor.listImages(new File(batchInput));
+			} catch (IOException e){
+				String source = batchInput.isEmpty() ? "manifest " + manifest : "directory " + batchInput;
+				throw new IllegalStateException("can't read " + source, e);
+			}
+			try {
+				BatchProcessor.Result result = new BatchProcessor(operation, workers, 2 * workers)
+						.run(inputs, new File(batchOutput), format);
+				System.out.println(result);
+			} catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
 		
 		File toRead = new File("images/" + image);
 		if (toRead.exists() == false){
 			throw new FileNotFoundException(image + " not found in images/ directory");
 		}
-		BufferedImage img = null;
+		if (tileSize > 0){
+			// decode, build and write one band of tiles at a time. Png output is streamed by the
+			// writer row by row, so memory depends on the tile size and not on the image size
+			if (!format.equalsIgnoreCase("png")){
+				throw new IllegalArgumentException("tiled mode writes png, " + output + " is not a .png file");
+			}
+			File out = new File("images/" + output);
+			boolean written = false;
+			try {
+				new TiledProcessor(tileSize, operation.margin()).process(toRead, out, "png", operation);
+				written = true;
+				System.out.println("Done");
+			} catch (IOException e){
+				throw new IllegalStateException("can't process " + image + " in tiles", e);
+			} finally {
+				if (!written){
+					// don't leave the rows written before the failure behind
+					out.delete();
+				}
+			}
+			return;
+		}
+		long start = System.nanoTime();
+		PhaseEvent read = PhaseEvent.begin("read", image);
+		PixelBuffer pixels;
 		try {
-			img = ImageIO.read(toRead);	
+			// ppm and pgm files are mapped instead of decoded
+			if (PpmFile.isPpm(image)){
+				pixels = PpmFile.read(toRead);
+			} else {
+				BufferedImage decoded = ImageIO.read(toRead);
+				if (decoded == null){
+					throw new IllegalArgumentException("no image reader for " + image);
+				}
+				pixels = PixelBuffer.wrap(decoded);
+			}
 		} catch (IOException e) {
+			throw new IllegalStateException("can't read " + image, e);
 		}
-		int imgHeight = img.getHeight();
-		int imgWidth = img.getWidth();
-		int pixel_raw[];
-		int[][][] colors = new int[imgHeight][imgWidth][3];
-		for (int h = 0; h < imgHeight; h++){
-			for (int w = 0; w < imgWidth; w++){
-				pixel_raw = img.getRaster().getPixel(w, h, new int[3]);
-				int[] pixel = {pixel_raw[0], pixel_raw[1], pixel_raw[2]};
-				colors[h][w] = pixel;
+		long area = (long) pixels.getWidth() * pixels.getHeight();
+		read.finish(area);
+		long readNanos = System.nanoTime() - start;
+		// the tree reads the decoded image's pixels in place and renders into its own buffer,
+		// or straight into the output file when that is a ppm or pgm file
+		start = System.nanoTime();
+		File out = new File("images/" + output);
+		File rendered = out;
+		PixelBuffer modified = null;
+		if (PpmFile.isPpm(output)){
+			try {
+				if (out.getCanonicalFile().equals(toRead.getCanonicalFile())){
+					// creating the output would empty the mapped input before the tree reads it, so
+					// render next to it and move the result over the input once it is written
+					rendered = File.createTempFile("render", "." + format, out.getAbsoluteFile().getParentFile());
+					rendered.deleteOnExit();
+				}
+				modified = PpmFile.create(rendered, pixels.getWidth(), pixels.getHeight(), format.equalsIgnoreCase("pgm"));
+			} catch (IOException e){
+				throw new IllegalStateException("can't create " + rendered, e);
 			}
-		}	
-		QuadTree tree = new QuadTree(colors);
-		tree.setThreshold(1000);
-		tree.insert();
-		tree.edgeDetection();
-		int[][][] modified = tree.getModified();
-		for (int h = 0; h < imgHeight; h++){
-			for (int w = 0; w < imgWidth; w++){
-				img.getRaster().setPixel(w, h, modified[h][w]);
+		}
+		QuadTree tree = modified == null ? new QuadTree(pixels) : new QuadTree(pixels, modified);
+		tree.setImageName(image);
+		operation.build(tree);
+		long buildNanos = System.nanoTime() - start;
+		if (encodeTree){
+			PhaseEvent encode = PhaseEvent.begin("encodeTree", image);
+			int extension = output.lastIndexOf('.');
+			String base = extension > output.lastIndexOf('/') + 1 ? output.substring(0, extension) : output;
+			File qtcFile = new File("images/" + base + ".qtc");
+			try (OutputStream qtc = new BufferedOutputStream(new FileOutputStream(qtcFile))) {
+				QuadTreeCodec.encode(tree, qtc, 8, true);
+			} catch (IOException e){
+				throw new IllegalStateException("can't write " + qtcFile, e);
 			}
+			encode.finish(area);
 		}
-		File out = new File("images/out.jpg");
+		start = System.nanoTime();
+		operation.render(tree);
+		long renderNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		PhaseEvent write = PhaseEvent.begin("write", image);
 		try {
-			ImageIO.write(img, "jpg", out);
+			if (modified != null){
+				PpmFile.force(modified);
+				if (rendered != out){
+					Files.move(rendered.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			} else if (!ImageIO.write(tree.getModifiedBuffer().toImage(), format, out)){
+				throw new IllegalArgumentException("no image writer for " + format + " files");
+			}
+			write.finish(area);
 			System.out.println("Done");
 		} catch (IOException e){
-
+			throw new IllegalStateException("can't write " + out, e);
+		}
+		long writeNanos = System.nanoTime() - start;
+		if (stats){
+			System.out.printf("read %.1f ms, build %.1f ms, render %.1f ms, write %.1f ms; %s; %s kernels%n",
+							  readNanos / 1e6, buildNanos / 1e6, renderNanos / 1e6,
+							  writeNanos / 1e6, tree.getStats(), PixelKernels.get());
 		}
 		
 		
 	
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,146 @@
+/**File: MappedPixelBuffer.java
+ * Desc:
+ * 		Pixel buffer over the samples of a binary PPM (P6, three bytes per pixel) or PGM (P5, one
+ * 		gray byte per pixel) file mapped into memory, so the pixels are read and written in the
+ * 		page cache and never copied onto the heap. A single mapping can't pass 2 GB, so the file
+ * 		is mapped in segments of whole rows. Gray files read as r = g = b. Made by PpmFile.
+ */
+
+package quadtree;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+final class MappedPixelBuffer extends PixelBuffer {
+	private final MappedByteBuffer[] segments;
+	//the mapped samples, rowsPerSegment rows each
+	private final int rowsPerSegment;
+	//rows in every segment but the last
+	private final int channels;
+	//bytes per pixel, 3 for PPM and 1 for PGM
+
+	/** Constructor for a buffer over the samples of a file
+	 * @param channel	the open file
+	 * @param mode	READ_WRITE to write through to the file, READ_ONLY for a picture that is
+	 * 				only read
+	 * @param dataOffset	position of the first sample, just past the header
+	 * @param width	width of the picture
+	 * @param height	height of the picture
+	 * @param channels	bytes per pixel, 3 or 1
+	 * @throws IOException	if the file can't be mapped
+	 */
+	MappedPixelBuffer(FileChannel channel, FileChannel.MapMode mode, long dataOffset, int width,
+					  int height, int channels) throws IOException {
+		super(width, height);
+		long rowBytes = (long) width * channels;
+		if (rowBytes > Integer.MAX_VALUE) {
+			throw new IOException("rows of " + rowBytes + " bytes can't be mapped");
+		}
+		this.channels = channels;
+		this.rowsPerSegment = (int) Math.min(height, Integer.MAX_VALUE / rowBytes);
+		int count = (height + this.rowsPerSegment - 1) / this.rowsPerSegment;
+		this.segments = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			int rows = Math.min(this.rowsPerSegment, height - i * this.rowsPerSegment);
+			this.segments[i] = channel.map(mode, dataOffset + i * this.rowsPerSegment * rowBytes,
+										   rows * rowBytes);
+		}
+	}
+
+	@Override
+	public int get(int row, int col) {
+		MappedByteBuffer segment = this.segments[row / this.rowsPerSegment];
+		int i = ((row % this.rowsPerSegment) * this.width + col) * this.channels;
+		if (this.channels == 1) {
+			int gray = segment.get(i) & 0xFF;
+			return (gray << 16) | (gray << 8) | gray;
+		}
+		return ((segment.get(i) & 0xFF) << 16) | ((segment.get(i + 1) & 0xFF) << 8) |
+			   (segment.get(i + 2) & 0xFF);
+	}
+
+	@Override
+	public void set(int row, int col, int rgb) {
+		MappedByteBuffer segment = this.segments[row / this.rowsPerSegment];
+		int i = ((row % this.rowsPerSegment) * this.width + col) * this.channels;
+		if (this.channels == 1) {
+			segment.put(i, (byte) ((red(rgb) + green(rgb) + blue(rgb)) / 3));
+			return;
+		}
+		segment.put(i, (byte) (rgb >> 16));
+		segment.put(i + 1, (byte) (rgb >> 8));
+		segment.put(i + 2, (byte) rgb);
+	}
+
+	@Override
+	public void getRow(int row, int col, int length, int[] dst, int offset) {
+		MappedByteBuffer segment = this.segments[row / this.rowsPerSegment];
+		int i = ((row % this.rowsPerSegment) * this.width + col) * this.channels;
+		if (this.channels == 1) {
+			for (int end = offset + length; offset < end; offset++, i++) {
+				int gray = segment.get(i) & 0xFF;
+				dst[offset] = (gray << 16) | (gray << 8) | gray;
+			}
+			return;
+		}
+		for (int end = offset + length; offset < end; offset++, i += 3) {
+			dst[offset] = ((segment.get(i) & 0xFF) << 16) | ((segment.get(i + 1) & 0xFF) << 8) |
+						  (segment.get(i + 2) & 0xFF);
+		}
+	}
+
+	@Override
+	public void setRow(int row, int col, int length, int[] src, int offset) {
+		MappedByteBuffer segment = this.segments[row / this.rowsPerSegment];
+		int i = ((row % this.rowsPerSegment) * this.width + col) * this.channels;
+		for (int end = offset + length; offset < end; offset++, i += this.channels) {
+			int rgb = src[offset];
+			if (this.channels == 1) {
+				segment.put(i, (byte) ((red(rgb) + green(rgb) + blue(rgb)) / 3));
+			} else {
+				segment.put(i, (byte) (rgb >> 16));
+				segment.put(i + 1, (byte) (rgb >> 8));
+				segment.put(i + 2, (byte) rgb);
+			}
+		}
+	}
+
+	@Override
+	public void fill(int row, int col, int length, int rgb) {
+		MappedByteBuffer segment = this.segments[row / this.rowsPerSegment];
+		int i = ((row % this.rowsPerSegment) * this.width + col) * this.channels;
+		if (this.channels == 1) {
+			byte gray = (byte) ((red(rgb) + green(rgb) + blue(rgb)) / 3);
+			for (int end = i + length; i < end; i++) {
+				segment.put(i, gray);
+			}
+			return;
+		}
+		for (int end = i + 3 * length; i < end; i += 3) {
+			segment.put(i, (byte) (rgb >> 16));
+			segment.put(i + 1, (byte) (rgb >> 8));
+			segment.put(i + 2, (byte) rgb);
+		}
+	}
+
+	/** Method that copies the pixels into an image on the heap. Unlike the other buffers, the
+	 * 	image does not share the buffer's storage, so later writes to either are not seen by the
+	 * 	other
+	 * @return	the copy
+	 */
+	@Override
+	public BufferedImage toImage() {
+		return copy().toImage();
+	}
+
+	/** Method that writes the pixels changed so far out to the file, for buffers mapped
+	 * 	READ_WRITE
+	 */
+	void force() {
+		for (MappedByteBuffer segment: this.segments) {
+			segment.force();
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/**File: NodeVisitor.java
+ * Desc:
+ * 		Callback for QuadTree.walk. It is handed every node reached, parents before children,
+ * 		and its answer decides whether the walk goes below the node, skips its subtree or stops.
+ */
+
+package quadtree;
+
+@FunctionalInterface
+public interface NodeVisitor {
+
+	/** What the walk does after a node is visited
+	 */
+	enum Result {
+		CONTINUE,
+		//go on to the node's children, if it has any
+		SKIP_CHILDREN,
+		//go on, but leave out the node's subtree
+		STOP
+		//end the walk
+	}
+
+	/** Method that visits one node
+	 * @param node	the node
+	 * @return	what the walk does next
+	 */
+	Result visit(QuadTree.Node node);
+}
@@ -0,0 +1,106 @@
+/**File: Operation.java
+ * Desc:
+ * 		The work Main's command line flags ask for: build a quadtree at a threshold and render it
+ * 		with one of the filters. Shared by single image, tiled and batch runs.
+ */
+
+package quadtree;
+
+public class Operation implements TiledProcessor.TileOperation {
+	private final int threshold;
+	//threshold when creating the quadtree
+	private final boolean outline;
+	//-t, outline the leaves
+	private final boolean compression;
+	//-c, fill the leaves with their average color
+	private final boolean edgeDetection;
+	//-e, edge detection
+	private final boolean custom;
+	//-x, custom filter (gray scale)
+	private final int blurRadius;
+	//-blur, radius of a box blur, 0 for none
+	private final double gaussSigma;
+	//-gauss, sigma of a Gaussian blur, 0 for none
+
+	/** Constructor for an operation without blurs
+	 */
+	public Operation(int threshold, boolean outline, boolean compression, boolean edgeDetection,
+					 boolean custom) {
+		this(threshold, outline, compression, edgeDetection, custom, 0, 0);
+	}
+
+	/** Constructor for an operation. Filters are picked in the order box blur, Gaussian blur,
+	 * 	edge detection, custom, outline (compressed if compression is also set), compression,
+	 * 	and edge detection is used if no filter is set
+	 */
+	public Operation(int threshold, boolean outline, boolean compression, boolean edgeDetection,
+					 boolean custom, int blurRadius, double gaussSigma) {
+		this.threshold = threshold;
+		this.outline = outline;
+		this.compression = compression;
+		this.edgeDetection = edgeDetection;
+		this.custom = custom;
+		this.blurRadius = blurRadius;
+		this.gaussSigma = gaussSigma;
+	}
+
+	/** Method that builds the tree and renders the chosen filter into its modified image
+	 * @param tree	a tree that has not been built yet
+	 */
+	@Override
+	public void apply(QuadTree tree) {
+		build(tree);
+		render(tree);
+	}
+
+	/** Method that builds the tree at the operation's threshold
+	 * @param tree	a tree that has not been built yet
+	 */
+	public void build(QuadTree tree) {
+		PhaseEvent event = PhaseEvent.begin("build", tree.getImageName());
+		tree.setThreshold(this.threshold);
+		tree.insert();
+		event.finish((long) tree.getWidth() * tree.getHeight());
+	}
+
+	/** Method that renders the chosen filter of a built tree into its modified image
+	 * @param tree	the built tree
+	 */
+	public void render(QuadTree tree) {
+		PhaseEvent event = PhaseEvent.begin("render", tree.getImageName());
+		if (this.blurRadius > 0) {
+			tree.boxBlur(this.blurRadius);
+		} else if (this.gaussSigma > 0) {
+			tree.gaussianBlur(this.gaussSigma);
+		} else if (this.edgeDetection) {
+			tree.edgeDetection();
+		} else if (this.custom) {
+			tree.grayScale();
+		} else if (this.outline && this.compression) {
+			tree.outlineCompressed();
+		} else if (this.outline) {
+			tree.outline();
+		} else if (this.compression) {
+			tree.compressToLevel(1.0);
+		} else {
+			tree.edgeDetection();
+		}
+		event.finish((long) tree.getWidth() * tree.getHeight());
+	}
+
+	/** Method that gets how many pixels around a tile the chosen filter reads
+	 * @return	the kernel radius for convolution filters, the radius of the boxes for blurs,
+	 * 			0 otherwise
+	 */
+	public int margin() {
+		if (this.blurRadius > 0) {
+			return this.blurRadius;
+		}
+		if (this.gaussSigma > 0) {
+			return BoxBlur.gaussian(this.gaussSigma).getRadius();
+		}
+		boolean convolution = this.edgeDetection ||
+							  (!this.custom && !this.outline && !this.compression);
+		return convolution ? 1 : 0;
+	}
+}
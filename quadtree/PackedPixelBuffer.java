@@ -0,0 +1,82 @@
+/**File: PackedPixelBuffer.java
+ * Desc:
+ * 		Pixel buffer over the int[] of a TYPE_INT_RGB or TYPE_INT_ARGB image, one int per pixel.
+ */
+
+package quadtree;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+final class PackedPixelBuffer extends PixelBuffer {
+	private final BufferedImage image;
+	//the image whose pixels this buffer holds
+	private final int[] data;
+	//the image's pixel array
+	private final int offset;
+	//index in data of the top left pixel
+	private final int stride;
+	//distance in data between two rows
+	private final int alpha;
+	//bits or'ed into every written pixel, opaque alpha for argb images
+
+	PackedPixelBuffer(BufferedImage image) {
+		super(image.getWidth(), image.getHeight());
+		WritableRaster raster = image.getRaster();
+		DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+		this.image = image;
+		this.data = buffer.getData();
+		this.stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+		this.offset = buffer.getOffset()
+					  - raster.getSampleModelTranslateY() * this.stride
+					  - raster.getSampleModelTranslateX();
+		this.alpha = image.getType() == BufferedImage.TYPE_INT_ARGB ? 0xFF000000 : 0;
+	}
+
+	@Override
+	public int get(int row, int col) {
+		return this.data[this.offset + row * this.stride + col] & 0xFFFFFF;
+	}
+
+	@Override
+	public void set(int row, int col, int rgb) {
+		this.data[this.offset + row * this.stride + col] = rgb | this.alpha;
+	}
+
+	@Override
+	public void getRow(int row, int col, int length, int[] dst, int offset) {
+		int start = this.offset + row * this.stride + col;
+		System.arraycopy(this.data, start, dst, offset, length);
+		if (this.alpha != 0) {
+			for (int i = offset; i < offset + length; i++) {
+				dst[i] &= 0xFFFFFF;
+			}
+		}
+	}
+
+	@Override
+	public void setRow(int row, int col, int length, int[] src, int offset) {
+		int start = this.offset + row * this.stride + col;
+		if (this.alpha == 0) {
+			System.arraycopy(src, offset, this.data, start, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				this.data[start + i] = src[offset + i] | this.alpha;
+			}
+		}
+	}
+
+	@Override
+	public void fill(int row, int col, int length, int rgb) {
+		int start = this.offset + row * this.stride + col;
+		Arrays.fill(this.data, start, start + length, rgb | this.alpha);
+	}
+
+	@Override
+	public BufferedImage toImage() {
+		return this.image;
+	}
+}
@@ -0,0 +1,55 @@
+/**File: PhaseEvent.java
+ * Desc:
+ * 		Flight recorder event for one phase of processing a picture: decoding, building the tree,
+ * 		rendering a filter, encoding. Begin it before the phase and finish it after. When no
+ * 		recording has the event enabled, shouldCommit is false and the JIT drops the rest, so an
+ * 		unused event costs next to nothing.
+ */
+
+package quadtree;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("quadtree.Phase")
+@Label("Processing Phase")
+@Category("Quadtree")
+@Description("One phase of processing a picture")
+final class PhaseEvent extends Event {
+	@Label("Phase")
+	String phase;
+	//read, build, render, encodeTree or write
+	@Label("Image")
+	String image;
+	//name of the picture, or null if the caller has none
+	@Label("Pixels")
+	long pixels;
+	//pixels in the picture, 0 if not known yet when the phase ends
+
+	/** Method that starts timing a phase
+	 * @param phase	name of the phase
+	 * @param image	name of the picture
+	 * @return	the running event
+	 */
+	static PhaseEvent begin(String phase, String image) {
+		PhaseEvent event = new PhaseEvent();
+		event.phase = phase;
+		event.image = image;
+		event.begin();
+		return event;
+	}
+
+	/** Method that stops timing the phase and records it if a recording wants it
+	 * @param pixels	pixels in the picture
+	 */
+	void finish(long pixels) {
+		end();
+		if (shouldCommit()) {
+			this.pixels = pixels;
+			commit();
+		}
+	}
+}
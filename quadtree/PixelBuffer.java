@@ -0,0 +1,193 @@
+/**File: PixelBuffer.java
+ * Desc:
+ * 		A flat buffer of rgb pixels. Every pixel is read and written as one packed int 0xRRGGBB,
+ * 		so there is no small array per pixel. Buffers made from a BufferedImage read and write
+ * 		the image's DataBuffer directly, so loading and storing a picture needs no per pixel copy.
+ */
+
+package quadtree;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+public abstract class PixelBuffer {
+	protected final int width;
+	//width of the picture
+	protected final int height;
+	//height of the picture
+
+	protected PixelBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/** Method that reads one pixel
+	 * @param row	row of the pixel
+	 * @param col	column of the pixel
+	 * @return	the pixel packed as 0xRRGGBB
+	 */
+	public abstract int get(int row, int col);
+
+	/** Method that writes one pixel
+	 * @param row	row of the pixel
+	 * @param col	column of the pixel
+	 * @param rgb	the pixel packed as 0xRRGGBB
+	 */
+	public abstract void set(int row, int col, int rgb);
+
+	/** Method that reads a run of pixels from one row into an array
+	 * @param row	row of the run
+	 * @param col	column of the first pixel of the run
+	 * @param length	number of pixels in the run
+	 * @param dst	the array the packed pixels are copied into
+	 * @param offset	index in dst of the first pixel
+	 */
+	public void getRow(int row, int col, int length, int[] dst, int offset) {
+		for (int i = 0; i < length; i++) {
+			dst[offset + i] = get(row, col + i);
+		}
+	}
+
+	/** Method that writes a run of pixels from an array into one row
+	 * @param row	row of the run
+	 * @param col	column of the first pixel of the run
+	 * @param length	number of pixels in the run
+	 * @param src	the array of packed pixels to write
+	 * @param offset	index in src of the first pixel
+	 */
+	public void setRow(int row, int col, int length, int[] src, int offset) {
+		for (int i = 0; i < length; i++) {
+			set(row, col + i, src[offset + i]);
+		}
+	}
+
+	/** Method that writes the same pixel over a run of one row
+	 * @param row	row of the run
+	 * @param col	column of the first pixel of the run
+	 * @param length	number of pixels in the run
+	 * @param rgb	the pixel packed as 0xRRGGBB
+	 */
+	public void fill(int row, int col, int length, int rgb) {
+		for (int i = 0; i < length; i++) {
+			set(row, col + i, rgb);
+		}
+	}
+
+	/** Method that gets a BufferedImage showing the pixels of this buffer, sharing its storage
+	 * @return	the image
+	 */
+	public abstract BufferedImage toImage();
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/** Method that copies the pixels into a triple integer array, for callers that still use
+	 * 	the [row][col][rgb] layout
+	 * @return	the rgb values as int[height][width][3]
+	 */
+	public int[][][] toArray() {
+		int[][][] colors = new int[this.height][this.width][3];
+		int[] row = new int[this.width];
+		for (int r = 0; r < this.height; r++) {
+			getRow(r, 0, this.width, row, 0);
+			for (int c = 0; c < this.width; c++) {
+				colors[r][c][0] = red(row[c]);
+				colors[r][c][1] = green(row[c]);
+				colors[r][c][2] = blue(row[c]);
+			}
+		}
+		return colors;
+	}
+
+	/** Method that copies the pixels into a new buffer backed by a TYPE_INT_RGB image
+	 * @return	the copy
+	 */
+	public PixelBuffer copy() {
+		PixelBuffer copy = allocate(this.width, this.height);
+		int[] row = new int[this.width];
+		for (int r = 0; r < this.height; r++) {
+			getRow(r, 0, this.width, row, 0);
+			copy.setRow(r, 0, this.width, row, 0);
+		}
+		return copy;
+	}
+
+	/** Method that makes a new buffer of black pixels backed by a TYPE_INT_RGB image
+	 * @param width	width of the picture
+	 * @param height	height of the picture
+	 * @return	the new buffer
+	 */
+	public static PixelBuffer allocate(int width, int height) {
+		return new PackedPixelBuffer(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+	}
+
+	/** Method that makes a buffer over the pixels of an image. Int rgb and interleaved byte
+	 * 	images are read and written in place; any other layout is converted once to TYPE_INT_RGB
+	 * @param image	the image
+	 * @return	the buffer
+	 */
+	public static PixelBuffer wrap(BufferedImage image) {
+		switch (image.getType()) {
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+				return new PackedPixelBuffer(image);
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_BYTE_GRAY:
+				return new InterleavedPixelBuffer(image);
+			default:
+				BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+															BufferedImage.TYPE_INT_RGB);
+				Graphics2D g = converted.createGraphics();
+				g.drawImage(image, 0, 0, null);
+				g.dispose();
+				return new PackedPixelBuffer(converted);
+		}
+	}
+
+	/** Method that copies a triple integer array of rgb values into a new buffer
+	 * @param colors	the rgb values as int[height][width][3]
+	 * @return	the new buffer
+	 */
+	public static PixelBuffer fromArray(int[][][] colors) {
+		int height = colors.length;
+		int width = colors[0].length;
+		PixelBuffer buffer = allocate(width, height);
+		int[] row = new int[width];
+		for (int r = 0; r < height; r++) {
+			for (int c = 0; c < width; c++) {
+				row[c] = pack(colors[r][c][0], colors[r][c][1], colors[r][c][2]);
+			}
+			buffer.setRow(r, 0, width, row, 0);
+		}
+		return buffer;
+	}
+
+	public static int red(int rgb) {
+		return (rgb >> 16) & 0xFF;
+	}
+
+	public static int green(int rgb) {
+		return (rgb >> 8) & 0xFF;
+	}
+
+	public static int blue(int rgb) {
+		return rgb & 0xFF;
+	}
+
+	/** Method that packs three channels into one pixel, clamping each channel to 0-255
+	 * @return	the pixel packed as 0xRRGGBB
+	 */
+	public static int pack(int red, int green, int blue) {
+		return (clamp(red) << 16) | (clamp(green) << 8) | clamp(blue);
+	}
+
+	private static int clamp(int channel) {
+		return channel < 0 ? 0 : (channel > 255 ? 255 : channel);
+	}
+}
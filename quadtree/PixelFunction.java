@@ -0,0 +1,103 @@
+/**File: PixelFunction.java
+ * Desc:
+ * 		A function from one packed 0xRRGGBB pixel to another. All three channels go through one
+ * 		call on a primitive int, so a chain of them runs with no boxing and no per channel calls.
+ */
+
+package quadtree;
+
+@FunctionalInterface
+public interface PixelFunction {
+
+	/** Method that maps one pixel
+	 * @param rgb	the pixel packed as 0xRRGGBB
+	 * @return	the new pixel packed as 0xRRGGBB
+	 */
+	int apply(int rgb);
+
+	/** Method that maps a run of pixels in place. Functions with a PixelKernels loop override it,
+	 * 	so callers that hand over whole rows get the vector backend where there is one
+	 * @param row	the pixels packed as 0xRRGGBB
+	 * @param from	index of the first pixel
+	 * @param length	number of pixels
+	 */
+	default void applyRow(int[] row, int from, int length) {
+		for (int i = from; i < from + length; i++) {
+			row[i] = apply(row[i]);
+		}
+	}
+
+	/** Method that fuses this function with the next one into a single function. A run of
+	 * 	pixels goes through the row loop of each in turn
+	 * @param next	the function applied to the output of this one
+	 * @return	the fused function
+	 */
+	default PixelFunction andThen(PixelFunction next) {
+		PixelFunction first = this;
+		return new PixelFunction() {
+			@Override
+			public int apply(int rgb) {
+				return next.apply(first.apply(rgb));
+			}
+
+			@Override
+			public void applyRow(int[] row, int from, int length) {
+				first.applyRow(row, from, length);
+				next.applyRow(row, from, length);
+			}
+		};
+	}
+
+	static PixelFunction identity() {
+		return rgb -> rgb;
+	}
+
+	/** Method that gets the luminance gray scale, 0.3 r + 0.59 g + 0.11 b in every channel
+	 * @return	the gray scale function
+	 */
+	static PixelFunction grayScale() {
+		return new PixelFunction() {
+			@Override
+			public int apply(int rgb) {
+				int gray = (int) (0.3 * PixelBuffer.red(rgb) + 0.59 * PixelBuffer.green(rgb) +
+								  0.11 * PixelBuffer.blue(rgb));
+				return (gray << 16) | (gray << 8) | gray;
+			}
+
+			@Override
+			public void applyRow(int[] row, int from, int length) {
+				PixelKernels.get().grayScale(row, from, length);
+			}
+		};
+	}
+
+	/** Method that gets the function that makes a pixel white if every channel is above a
+	 * 	level, and black otherwise
+	 * @param level	the level every channel must be above
+	 * @return	the threshold function
+	 */
+	static PixelFunction threshold(int level) {
+		return new PixelFunction() {
+			@Override
+			public int apply(int rgb) {
+				if (PixelBuffer.red(rgb) > level && PixelBuffer.green(rgb) > level &&
+					PixelBuffer.blue(rgb) > level) {
+					return 0xFFFFFF;
+				}
+				return 0;
+			}
+
+			@Override
+			public void applyRow(int[] row, int from, int length) {
+				PixelKernels.get().threshold(row, from, length, level);
+			}
+		};
+	}
+
+	/** Method that gets the function that inverts every channel
+	 * @return	the invert function
+	 */
+	static PixelFunction invert() {
+		return rgb -> ~rgb & 0xFFFFFF;
+	}
+}
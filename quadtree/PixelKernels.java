@@ -0,0 +1,81 @@
+/**File: PixelKernels.java
+ * Desc:
+ * 		The innermost loops over whole rows of pixels: the luminance gray scale and the edge
+ * 		threshold. This class runs them one pixel at a time. When the vector backend was compiled
+ * 		in and the JVM was started with --add-modules jdk.incubator.vector, get() returns
+ * 		VectorKernels instead, which runs the loops it can speed up on the widest SIMD registers
+ * 		of the machine, with the same results bit for bit. Run with -Dquadtree.kernels=scalar to
+ * 		always use this class.
+ */
+
+package quadtree;
+
+class PixelKernels {
+	private static final String VECTOR_KERNELS = "quadtree.VectorKernels";
+	//class name of the vector backend, loaded by name so the package builds without it
+	private static final PixelKernels KERNELS = load();
+	//the backend picked when the class was first used
+
+	/** Method that gets the backend picked for this machine
+	 * @return	the vector backend if it can run here, the scalar one otherwise
+	 */
+	static PixelKernels get() {
+		return KERNELS;
+	}
+
+	/** Method that picks the backend. The vector one is missing from a plain javac build and
+	 * 	can't link when the JVM was started without --add-modules jdk.incubator.vector, so
+	 * 	failing to find or link it falls back to the scalar loops, as does its isSupported()
+	 * 	probe turning this machine down
+	 * @return	the backend
+	 */
+	private static PixelKernels load() {
+		if ("scalar".equals(System.getProperty("quadtree.kernels"))) {
+			return new PixelKernels();
+		}
+		try {
+			Class<?> vector = Class.forName(VECTOR_KERNELS);
+			if (!(Boolean) vector.getDeclaredMethod("isSupported").invoke(null)) {
+				return new PixelKernels();
+			}
+			return (PixelKernels) vector.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return new PixelKernels();
+		}
+	}
+
+	/** Method that turns a run of pixels into their luminance gray, 0.3 r + 0.59 g + 0.11 b
+	 * 	rounded down in every channel
+	 * @param row	the pixels packed as 0xRRGGBB, changed in place
+	 * @param from	index of the first pixel
+	 * @param length	number of pixels
+	 */
+	void grayScale(int[] row, int from, int length) {
+		for (int i = from; i < from + length; i++) {
+			int rgb = row[i];
+			int gray = (int) (0.3 * PixelBuffer.red(rgb) + 0.59 * PixelBuffer.green(rgb) +
+							  0.11 * PixelBuffer.blue(rgb));
+			row[i] = (gray << 16) | (gray << 8) | gray;
+		}
+	}
+
+	/** Method that makes each pixel of a run white if every channel is above a level, and
+	 * 	black otherwise
+	 * @param row	the pixels packed as 0xRRGGBB, changed in place
+	 * @param from	index of the first pixel
+	 * @param length	number of pixels
+	 * @param level	the level every channel must be above
+	 */
+	void threshold(int[] row, int from, int length, int level) {
+		for (int i = from; i < from + length; i++) {
+			int rgb = row[i];
+			row[i] = PixelBuffer.red(rgb) > level && PixelBuffer.green(rgb) > level &&
+					 PixelBuffer.blue(rgb) > level ? 0xFFFFFF : 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "scalar";
+	}
+}
@@ -0,0 +1,165 @@
+/**File: PpmFile.java
+ * Desc:
+ * 		Reads and writes binary PPM (P6) and PGM (P5) files by mapping them into memory instead of
+ * 		going through ImageIO. The samples of these files are raw bytes in row order right after
+ * 		a short text header, so a mapped file already is the picture: reading one costs a header
+ * 		parse, and pixels come off the page cache as the tree touches them. Writing to a file made
+ * 		by create fills the file in place, so a render into it is the whole encode. The samples
+ * 		never go on the heap, but a QuadTree over them still keeps its summed-area tables there,
+ * 		four longs or 32 bytes per pixel, so that is the picture size the heap has to fit.
+ *
+ * 		header	"P6" or "P5", width, height and maxval as decimal text, separated by whitespace
+ * 				and # comments up to the end of a line, then one whitespace byte. Only maxval 255,
+ * 				one byte per sample, is supported.
+ */
+
+package quadtree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+public final class PpmFile {
+	private static final int MAX_HEADER = 1024;
+	//bytes of a file read to find the end of its header
+
+	private PpmFile() {
+	}
+
+	/** Method that tells by its extension if a file is a PPM or PGM file
+	 * @param name	the file name
+	 * @return	true for .ppm, .pgm and .pnm names
+	 */
+	public static boolean isPpm(String name) {
+		String lower = name.toLowerCase();
+		return lower.endsWith(".ppm") || lower.endsWith(".pgm") || lower.endsWith(".pnm");
+	}
+
+	/** Method that maps a PPM or PGM file as a picture. The mapping is read only, so writing to
+	 * 	the buffer, as QuadTree.update does to its picture, throws ReadOnlyBufferException
+	 * @param file	the file
+	 * @return	a read only buffer over the samples of the file
+	 * @throws IOException	if the file can't be read or is not an 8 bit binary PPM or PGM file
+	 */
+	public static PixelBuffer read(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate((int) Math.min(MAX_HEADER, channel.size()));
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+			}
+			header.flip();
+			int magic = header.remaining() >= 2 && header.get() == 'P' ? header.get() : 0;
+			if (magic != '6' && magic != '5') {
+				throw new IOException(file + " is not a binary PPM or PGM file");
+			}
+			int width = readNumber(header, file);
+			int height = readNumber(header, file);
+			int maxval = readNumber(header, file);
+			if (!header.hasRemaining()) {
+				throw new IOException(file + " has no samples after its header");
+			}
+			//the single whitespace byte ending the header
+			header.get();
+			if (width <= 0 || height <= 0 || maxval != 255) {
+				throw new IOException(file + " is " + width + "x" + height + " with maxval " + maxval +
+									  ", only pictures with maxval 255 are supported");
+			}
+			int channels = magic == '6' ? 3 : 1;
+			long dataOffset = header.position();
+			if (channel.size() < dataOffset + (long) width * height * channels) {
+				throw new IOException(file + " ends before its last row");
+			}
+			//the mapping stays valid after the channel is closed
+			return new MappedPixelBuffer(channel, FileChannel.MapMode.READ_ONLY, dataOffset, width,
+										 height, channels);
+		}
+	}
+
+	/** Method that makes a PPM or PGM file of a size and maps it, so pixels written to the
+	 * 	buffer go straight to the file. The samples start black
+	 * @param file	the file, replaced if it exists. It must not be a file mapped by read, whose
+	 * 				samples this empties
+	 * @param width	width of the picture
+	 * @param height	height of the picture
+	 * @param gray	true for a PGM file of gray bytes, false for a PPM file of rgb bytes
+	 * @return	a buffer over the samples of the new file
+	 * @throws IOException	if the file can't be written
+	 */
+	public static PixelBuffer create(File file, int width, int height, boolean gray)
+			throws IOException {
+		byte[] header = ((gray ? "P5" : "P6") + "\n" + width + " " + height + "\n255\n")
+						.getBytes(StandardCharsets.US_ASCII);
+		int channels = gray ? 1 : 3;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			raf.setLength(header.length + (long) width * height * channels);
+			raf.write(header);
+			return new MappedPixelBuffer(raf.getChannel(), FileChannel.MapMode.READ_WRITE,
+										 header.length, width, height, channels);
+		}
+	}
+
+	/** Method that writes a picture to a PPM or PGM file
+	 * @param pixels	the picture
+	 * @param file	the file, replaced if it exists
+	 * @param gray	true for a PGM file of gray bytes, false for a PPM file of rgb bytes
+	 * @throws IOException	if the file can't be written
+	 */
+	public static void write(PixelBuffer pixels, File file, boolean gray) throws IOException {
+		int width = pixels.getWidth();
+		PixelBuffer out = create(file, width, pixels.getHeight(), gray);
+		int[] row = new int[width];
+		for (int r = 0; r < pixels.getHeight(); r++) {
+			pixels.getRow(r, 0, width, row, 0);
+			out.setRow(r, 0, width, row, 0);
+		}
+		force(out);
+	}
+
+	/** Method that makes sure every pixel written to a buffer from create is in the file. The
+	 * 	file is complete without this once the process exits normally, so it only matters to
+	 * 	readers that open the file while this process is still running, or after a crash
+	 * @param pixels	a buffer from create, anything else is left alone
+	 */
+	public static void force(PixelBuffer pixels) {
+		if (pixels instanceof MappedPixelBuffer) {
+			((MappedPixelBuffer) pixels).force();
+		}
+	}
+
+	/** Method that reads the next decimal number of a header, skipping whitespace and comments
+	 * @param header	the start of the file, positioned before the number
+	 * @param file	the file, for the error message
+	 * @return	the number
+	 * @throws IOException	if the header ends or has something else
+	 */
+	private static int readNumber(ByteBuffer header, File file) throws IOException {
+		while (header.hasRemaining()) {
+			byte b = header.get(header.position());
+			if (b == '#') {
+				while (header.hasRemaining() && header.get() != '\n') {
+				}
+			} else if (Character.isWhitespace(b)) {
+				header.get();
+			} else {
+				break;
+			}
+		}
+		long number = 0;
+		int digits = 0;
+		while (header.hasRemaining() && Character.isDigit(header.get(header.position()))) {
+			number = number * 10 + (header.get() - '0');
+			if (number > Integer.MAX_VALUE) {
+				throw new IOException(file + " has a header number that is too large");
+			}
+			digits++;
+		}
+		if (digits == 0) {
+			throw new IOException(file + " has a bad header");
+		}
+		return (int) number;
+	}
+}
@@ -3,6 +3,13 @@
  * Desc:
  * 		The file that contains the quadtree class, the protected node class, and the 
  * 		appropriate methods.
+ *
+ * 		Every renderer comes in two forms. The one without a buffer draws into the tree's own
+ * 		modified image, allocated the first time it is needed, and remembers itself for
+ * 		update(). The one that takes a buffer draws into that buffer and changes nothing in the
+ * 		tree. A tree shared between threads is handed out as a FrozenTree, which has only those
+ * 		renderers and keeps the render threshold it was made with, so any number of threads may
+ * 		render it at the same time into buffers of their own. BufferPool hands out such buffers.
  */
 
 package quadtree;
@@ -10,17 +17,16 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 
 import java.io.FileWriter;
-import java.util.Stack;
-import java.util.Queue;
-import java.util.LinkedList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 
-interface rgbFunction {
-	int run(int r, int g, int b);
-}
-
 public class QuadTree {
 	//brick outline threshold: 7000
 	//fire outline threshold: 1200
@@ -30,6 +36,20 @@ public class QuadTree {
 	//noChange threshold for all: 100
 	private static final int EDGETHRESHOLD = 80;
 	//threshold for edge detection which determines when a pixel should be white or black
+	static final PixelFunction EDGE_THRESHOLD = PixelFunction.threshold(EDGETHRESHOLD);
+	//makes a convolved pixel white if every channel is above EDGETHRESHOLD, and black otherwise
+	static final Convolution SHARPEN = new Convolution(new double[][] {
+		{-1.0/9, -1.0/9, -1.0/9},
+		{-1.0/9, 1.0, -1.0/9},
+		{-1.0/9, -1.0/9, -1.0/9}
+	});
+	//kernel for sharpen
+	static final Convolution EDGE = new Convolution(new double[][] {
+		{-1.0, -1.0, -1.0},
+		{-1.0, 8.0, -1.0},
+		{-1.0, -1.0, -1.0}
+	});
+	//kernel for edge detection
 	private int threshold;
 	//threshold when creating the quadtree
 	private Node root;
@@ -44,18 +64,37 @@ public class QuadTree {
 	//the number of leaves in the picture
 	private String imageName;
 	//the name of the picture
-	private int[][][] colors;
-	//the rgb values of the original picture stored in a triple integer array
-	private int[][][] modified;
-	//the rgb values for the modified image
+	private PixelBuffer colors;
+	//the rgb values of the original picture
+	private PixelBuffer modified;
+	//the rgb values for the modified image, null until a renderer first draws into it
+	private IntegralImage integral;
+	//summed-area tables of colors, used for the mean and error of each node
+	private int parallelThreshold;
+	//nodes covering more pixels than this are split into their own tasks by insertParallel
+	private long buildNanos;
+	//wall clock time of the last build
+	private volatile double cut;
+	//render threshold, nodes whose error is at most this are drawn as leaves
+	private Repaint lastRender;
+	//redraws a rectangle of the modified image with the renderer used last, null if none was
+	private static final int DIFF_BAND = 16;
+	//rows of a frame whose changed pixels update() gathers into one rectangle
+
+	/** A renderer that can redraw part of the modified image
+	 */
+	private interface Repaint {
+		void region(int startRow, int startCol, int width, int height);
+	}
 
-	protected class Node {
+	public class Node {
 		private int[] avgColor; //the average color of a sub picture that a node occupies
 		private int startRow; //row index of top left corner
 		private int startCol; //column index of top left corner
 		private int width; // width of quadrant
 		private int height; // height of quadrant
 		private int level;	//the level the node is at in the tree (starts at 0)
+		private double error;	//avg rgb square error, set when the build decides on a split
 		private Node nEast; //pointer to north east node
 		private Node nWest; //pointer to north west node
 		private Node sEast; //pointer to south east node
@@ -86,82 +125,133 @@ public class QuadTree {
 		}
 
 		/**
-		 * mean rgb for the region this node is comprised of
+		 * mean rgb for the region this node is comprised of, read from the summed-area tables
 		 * @return avg rgb as int[3]
 		 */
 		private int[] meanColor() {
-			int[] avgColor = {0, 0, 0};
-			int maxRow = this.startRow + this.height;
-			int maxCol = this.startCol + this.width;
-			for (int h = this.startRow; h < maxRow; h++) {
-				for (int w = this.startCol; w < maxCol; w++) {
-					avgColor[0] += QuadTree.this.colors[h][w][0];
-					avgColor[1] += QuadTree.this.colors[h][w][1];
-					avgColor[2] += QuadTree.this.colors[h][w][2];
-				}
-			}
-			int squareSz = this.width * this.height;
-			avgColor[0] /= squareSz;
-			avgColor[1] /= squareSz;
-			avgColor[2] /= squareSz;
-			return avgColor;
+			return QuadTree.this.integral.meanColor(this.startRow, this.startCol, 
+													this.width, this.height);
 		}
 		
-		/** Method that treats an rgb value as a point in 3 space and finds the distance between two
-		 * 	rgb values which is the square error of the two rgb values
-		 * @param pixelColor1	the first rgb value
-		 * @param pixelColor2	the second rgb value
-		 * @return	the distance (square error) between the two rgb values
+		/**
+		 * @return true if the node has not been split, or its error is within the render threshold
 		 */
-		private double twoPixelsSqError(int[] pixel1, int[] pixel2) {
-			int pixel1Red = pixel1[0];
-			int pixel1Green = pixel1[1];
-			int pixel1Blue = pixel1[2];
-			int pixel2Red = pixel2[0];
-			int pixel2Green = pixel2[1];
-			int pixel2Blue = pixel2[2];
-			return Math.pow(pixel1Red - pixel2Red, 2) +
-					Math.pow(pixel1Green - pixel2Green, 2) +
-					Math.pow(pixel1Blue - pixel2Blue, 2);
+		public boolean isLeaf() {
+			return isLeaf(QuadTree.this.cut);
 		}
-		
+
+		/**
+		 * @param cut	render threshold to test against
+		 * @return true if the node has not been split, or its error is at most cut
+		 */
+		boolean isLeaf(double cut) {
+			return this.nWest == null || this.error <= cut;
+		}
+
+		/**
+		 * @param quadrant	0 for north west, 1 for north east, 2 for south west, 3 for south east
+		 * @return the child in that quadrant, null if the node was never split. Nodes drawn as
+		 * 			leaves because of the render threshold still have their children
+		 */
+		public Node child(int quadrant) {
+			switch (quadrant) {
+				case 0: return this.nWest;
+				case 1: return this.nEast;
+				case 2: return this.sWest;
+				default: return this.sEast;
+			}
+		}
+
 		/**
-		 * 
+		 * @return avg rgb packed as 0xRRGGBB
+		 */
+		int avgRGB() {
+			return PixelBuffer.pack(this.avgColor[0], this.avgColor[1], this.avgColor[2]);
+		}
+
+		public int getAvgRGB() {
+			return avgRGB();
+		}
+
+		public int getStartRow() {
+			return this.startRow;
+		}
+
+		public int getStartCol() {
+			return this.startCol;
+		}
+
+		public int getWidth() {
+			return this.width;
+		}
+
+		public int getHeight() {
+			return this.height;
+		}
+
+		public int getLevel() {
+			return this.level;
+		}
+
+		/**
+		 * @return avg rgb square error in node as measured by the build, 0 if the node was too
+		 * 			small to split
+		 */
+		public double getError() {
+			return this.error;
+		}
+
+		/**
+		 * avg rgb square error in node, read from the summed-area tables
 		 * @return avg rgb square error in node as double
 		 */
 		public double avgSqError() {
-			double error = 0.0;
-			int maxRow = this.startRow + this.height;
-			int maxCol = this.startCol + this.width;
-			for (int h = this.startRow; h < maxRow; h++) {
-				for (int w = this.startCol; w < maxCol; w++) {
-					int[] pixel = QuadTree.this.colors[h][w];
-					error += twoPixelsSqError(pixel, this.avgColor);
-				}
-			}
-			int size = this.height * this.width;
-			error /= size;
-			return error;
+			return QuadTree.this.integral.avgSqError(this.startRow, this.startCol, 
+													 this.width, this.height, this.avgColor);
 		}
 	}
 
+	/** Constructor for a quad tree over a picture stored in a triple integer array. The array is
+	 * 	copied once into a pixel buffer
+	 * @param colors	the rgb values of the picture as int[height][width][3]
+	 */
 	public QuadTree(int[][][] colors) {
+		this(PixelBuffer.fromArray(colors));
+	}
+
+	/** Constructor for a quad tree over a picture
+	 * @param colors	the rgb values of the picture
+	 */
+	public QuadTree(PixelBuffer colors) {
 		this.numLeaves = 1;
-		this.width = colors[0].length;
-		this.height = colors.length;
+		this.width = colors.getWidth();
+		this.height = colors.getHeight();
 		this.size = this.width*this.height;
 		this.colors = colors;	
-		this.modified = new int[height][width][3];
+		this.integral = new IntegralImage(colors);
 		this.threshold = 100;
+		this.parallelThreshold = 1 << 14;
 		this.root = new Node(0, 0, this.width, this.height, 0);
 	}
+
+	/** Constructor for a quad tree over a picture that renders into a given buffer, such as a
+	 * 	mapped output file from PpmFile.create
+	 * @param colors	the rgb values of the picture
+	 * @param modified	the buffer every renderer draws into, the same size as colors
+	 */
+	public QuadTree(PixelBuffer colors, PixelBuffer modified) {
+		this(colors);
+		checkSize(modified);
+		this.modified = modified;
+	}
 	
 	/**
 	 * check if should split this node into 4 
 	 * @return boolean
 	 */
 	public boolean reachThreshold(Node node) {
-		if (node.avgSqError() > this.threshold) {
+		node.error = node.avgSqError();
+		if (node.error > this.threshold) {
 			//if big error, don't stop cutting 
 			return false;
 		} else {
@@ -170,203 +260,810 @@ public class QuadTree {
 		}
 	}
 
-	/** Method that inserts the children of the quadtree
-	 * @param root the root of the sub quad tree which the chidlren are inserted at
-	 * @param pixelColors the matrix of rgb values of the root node
+	/** Method that splits a node into four children if its error is too big
+	 * @param root	the node to split
+	 * @return	true if the node was split
 	 */
-	private void insertChildren(Node root) {
+	private boolean split(Node root) {
 		if (root.height > 1 && root.width > 1 && !reachThreshold(root)) {
 			//if the matrix is not really long or really wide then it can be split into four 
 			//sub images if need be. Helps handle pictures that do not have dimensions of a
 			//power of 2
-			numLeaves += 3; //lose itself as leaf and gain 4 new leaves
-			int midWidth = root.width / 2;
-			int midHeight = root.height / 2;
-			root.nWest = new Node(root.startRow, 
-								  root.startCol,
-								  midWidth, 
-							      midHeight,
-								  root.level + 1);
-			root.nEast = new Node(root.startRow,
-								  root.startCol + midWidth,
-								  root.width - midWidth,
-								  midHeight,
-								  root.level + 1);
-			root.sWest = new Node(root.startRow + midHeight,
-								  root.startCol,
-								  midWidth,
-								  root.height - midHeight,
-								  root.level + 1);
-			root.sEast = new Node(root.startRow + midHeight,
-							      root.startCol + midWidth,
-							      root.width - midWidth,
-							      root.height - midHeight,
-								  root.level + 1);
-			insertChildren(root.nWest);
-			insertChildren(root.nEast);
-			insertChildren(root.sWest);
-			insertChildren(root.sEast);
-		} 
+			makeChildren(root);
+			return true;
+		}
+		return false;
+	}
+
+	/** Method that gives a node its four children, halving it down the middle both ways
+	 * @param root	the node to split
+	 */
+	private void makeChildren(Node root) {
+		int midWidth = root.width / 2;
+		int midHeight = root.height / 2;
+		root.nWest = new Node(root.startRow, 
+							  root.startCol,
+							  midWidth, 
+						      midHeight,
+							  root.level + 1);
+		root.nEast = new Node(root.startRow,
+							  root.startCol + midWidth,
+							  root.width - midWidth,
+							  midHeight,
+							  root.level + 1);
+		root.sWest = new Node(root.startRow + midHeight,
+							  root.startCol,
+							  midWidth,
+							  root.height - midHeight,
+							  root.level + 1);
+		root.sEast = new Node(root.startRow + midHeight,
+						      root.startCol + midWidth,
+						      root.width - midWidth,
+						      root.height - midHeight,
+							  root.level + 1);
+	}
+
+	/** Method that inserts the children of the quadtree
+	 * @param root the root of the sub quad tree which the chidlren are inserted at
+	 * @return	the number of leaves in the sub quad tree
+	 */
+	private int insertChildren(Node root) {
+		if (split(root)) {
+			return insertChildren(root.nWest) +
+				   insertChildren(root.nEast) +
+				   insertChildren(root.sWest) +
+				   insertChildren(root.sEast);
+		}
+		return 1;
+	}
+
+	/** Task that builds a sub quad tree, forking the children of nodes that cover more than
+	 * 	parallelThreshold pixels and building smaller ones on the current thread. Each task
+	 * 	returns its own leaf count so no counter is shared between threads
+	 */
+	private class BuildTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private final Node root; //the root of the sub quad tree this task builds
+
+		BuildTask(Node root) {
+			this.root = root;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (this.root.width * this.root.height <= QuadTree.this.parallelThreshold) {
+				return insertChildren(this.root);
+			}
+			if (!split(this.root)) {
+				return 1;
+			}
+			BuildTask nWest = new BuildTask(this.root.nWest);
+			BuildTask nEast = new BuildTask(this.root.nEast);
+			BuildTask sWest = new BuildTask(this.root.sWest);
+			nWest.fork();
+			nEast.fork();
+			sWest.fork();
+			int leaves = new BuildTask(this.root.sEast).compute();
+			leaves += sWest.join();
+			leaves += nEast.join();
+			leaves += nWest.join();
+			return leaves;
+		}
 	}
 
+	/** Method that builds the tree down to the threshold. Every node that is split keeps its
+	 * 	error, so building once at a low threshold lets setRenderThreshold draw any coarser
+	 * 	threshold without building again. The render threshold is reset to the build threshold
+	 */
 	public void insert(){
-		insertChildren(this.root);
-	}
-
-	/** Method for determining whether a pixel is on the border of something
-	 * @param row	the x coordinate of the pixel in relation to the whole picture
-	 * @param col	the y coordinate of the pixel in relation to the whole picture
-	 * @param minRow	the x coordinate of the top border of the sub picture in relation to the 
-	 * 					whole picture
-	 * @param maxRow	the x coordinate of the bottom border of the sub picture in relation to the 
-	 * 					whole picture
-	 * @param minCol	the y coordinate of the left border of the sub picture in relation to the 
-	 * 					whole picture
-	 * @param maxCol	the y coordinate of the rightt border of the sub picture in relation to the 
-	 * 					whole picture
-	 * @return	boolean value of whether the pixel is on the border of the sub picture
-	 */
-	private boolean onBorder(int row, int col, int minRow, int maxRow, int minCol, int maxCol) {
-		//if the x coordinate or y coordinate of the pixel is on one of the borders, then it is 
-		//on the border
-		if (row == minRow || row == maxRow) {
-			return true;
-		} else if (col == minCol || col == maxCol) {
-			return true;
-		} else {
-			return false;
+		TreeBuildEvent event = new TreeBuildEvent();
+		event.begin();
+		long start = System.nanoTime();
+		this.cut = this.threshold;
+		this.numLeaves = insertChildren(this.root);
+		this.buildNanos = System.nanoTime() - start;
+		event.finish(this, false);
+	}
+
+	/** Method that builds the same tree as insert() with the work spread over a fork/join pool
+	 * @param pool	the pool that runs the build
+	 */
+	public void insertParallel(ForkJoinPool pool){
+		TreeBuildEvent event = new TreeBuildEvent();
+		event.begin();
+		long start = System.nanoTime();
+		this.cut = this.threshold;
+		this.numLeaves = pool.invoke(new BuildTask(this.root));
+		this.buildNanos = System.nanoTime() - start;
+		event.finish(this, true);
+	}
+
+	/** Method that builds the same tree as insert() on the common fork/join pool
+	 */
+	public void insertParallel(){
+		insertParallel(ForkJoinPool.commonPool());
+	}
+
+	/** Method that builds the tree best first instead of depth first: the leaf with the largest
+	 * 	total square error, its error times its area, is always split next. The build stops when
+	 * 	one more split would go over a number of leaves, when the mean square error of the
+	 * 	whole picture drawn from the leaves is down to a target, or when a deadline passes. Each
+	 * 	split removes the most error any split could, so a tree stopped early is the best one
+	 * 	for the work done, and every renderer can draw it. Leaves whose error is within the
+	 * 	build threshold are never split, so without a limit the tree is the one insert() builds.
+	 * 	The render threshold is reset to the build threshold
+	 * @param maxLeaves	the most leaves the tree may have
+	 * @param targetError	mean square error of the picture to stop at, 0 for no target
+	 * @param timeoutNanos	time the build may take, Long.MAX_VALUE for no deadline
+	 * @return	true if the tree was finished, false if a limit stopped it early
+	 */
+	public boolean insertBestFirst(int maxLeaves, double targetError, long timeoutNanos){
+		TreeBuildEvent event = new TreeBuildEvent();
+		event.begin();
+		long start = System.nanoTime();
+		this.cut = this.threshold;
+		this.root = new Node(0, 0, this.width, this.height, 0);
+		PriorityQueue<Node> queue = new PriorityQueue<Node>(
+			Comparator.comparingDouble((Node n) -> n.error * n.width * n.height).reversed());
+		queue(this.root, queue);
+		//square error of every leaf summed over its area
+		double totalError = totalError(this.root);
+		int leaves = 1;
+		double pixels = (double) this.width * this.height;
+		boolean finished = true;
+		while (!queue.isEmpty()) {
+			if (leaves + 3 > maxLeaves || totalError <= targetError * pixels ||
+				System.nanoTime() - start >= timeoutNanos) {
+				finished = false;
+				break;
+			}
+			Node node = queue.poll();
+			makeChildren(node);
+			totalError -= totalError(node);
+			for (int q = 0; q < 4; q++) {
+				queue(node.child(q), queue);
+				totalError += totalError(node.child(q));
+			}
+			leaves += 3;
 		}
+		this.numLeaves = leaves;
+		this.buildNanos = System.nanoTime() - start;
+		event.finish(this, false);
+		return finished;
 	}
 
-	/**
-	 * dfs to get leaf nodes. modify array in place with leaves
-	 * @param root	node to start at 
-	 * @param leaves	array to be modified in place
-	 */
-	private void dfsLeaves(Node[] leaves) {
-		Stack<Node> s = new Stack<Node>();
-		s.push(this.root);
-		int i = 0;
-		while (!s.isEmpty()){
-			Node n = s.pop();
-			if (n.nWest == null &&
-				n.nEast == null &&
-				n.sWest == null &&
-				n.sEast == null){
-				leaves[i] = n;
-				i += 1;
-			} else{
-				if (n.nWest != null){
-					s.push(n.nWest);
+	/** Method that grows one node of a tree read back by QuadTreeCodec.decodeTree the way a
+	 * 	build did: a node big enough to split gets its error measured, and a split node gets
+	 * 	its children
+	 * @param node	the node, reached from the root in breadth first order
+	 * @param split	true if the encoded tree split the node
+	 * @return	false if the node is too small to have been split
+	 */
+	boolean restore(Node node, boolean split) {
+		boolean splittable = node.height > 1 && node.width > 1;
+		if (splittable) {
+			node.error = node.avgSqError();
+		}
+		if (split && splittable) {
+			makeChildren(node);
+		}
+		return splittable || !split;
+	}
+
+	/** Method that finishes a tree read back by QuadTreeCodec.decodeTree. The render threshold
+	 * 	is reset to the build threshold
+	 * @param leaves	the number of leaves read
+	 */
+	void restored(int leaves) {
+		this.cut = this.threshold;
+		this.numLeaves = leaves;
+	}
+
+	/** Method that queues a node to be split if insert() would split it
+	 * @param node	the node
+	 * @param queue	the leaves waiting to be split, largest total error first
+	 */
+	private void queue(Node node, PriorityQueue<Node> queue) {
+		if (node.height > 1 && node.width > 1 && !reachThreshold(node)) {
+			queue.add(node);
+		}
+	}
+
+	/** Method that gets the square error of a node summed over its area, once queue has seen it
+	 * @param node	the node
+	 * @return	its error times its area
+	 */
+	private double totalError(Node node) {
+		//nodes too small to split never had their error measured
+		double error = node.height > 1 && node.width > 1 ? node.error : node.avgSqError();
+		return error * node.width * node.height;
+	}
+
+	/** Method that cuts the built tree at a coarser threshold without building it again. Nodes
+	 * 	whose error is at most the threshold are drawn as leaves by every renderer. Thresholds at
+	 * 	or below the build threshold draw the whole tree
+	 * @param threshold	the render threshold
+	 */
+	public void setRenderThreshold(double threshold){
+		this.cut = threshold;
+		this.numLeaves = countLeaves(this.cut);
+	}
+
+	public double getRenderThreshold(){
+		return this.cut;
+	}
+
+	/** Method that counts the leaves the tree would have if it were cut at a threshold, without
+	 * 	changing the render threshold
+	 * @param cut	the render threshold to count at
+	 * @return	the number of leaves
+	 */
+	public int countLeaves(double cut){
+		return countLeaves(this.root, cut);
+	}
+
+	/** Method that counts the leaves under a node if the tree were cut at a threshold
+	 * @param subtree	the node to count under
+	 * @param cut	the render threshold to count at
+	 * @return	the number of leaves
+	 */
+	private int countLeaves(Node subtree, double cut){
+		int[] leaves = {0};
+		walk(subtree, Integer.MAX_VALUE, cut, n -> {
+			if (n.isLeaf(cut)) {
+				leaves[0]++;
+			}
+			return NodeVisitor.Result.CONTINUE;
+		});
+		return leaves[0];
+	}
+
+	/** Method that sets the render threshold to the lowest one that draws at most a number of
+	 * 	leaves. The leaf count only changes at the errors of the split nodes and falls as the
+	 * 	threshold rises, so the search is a binary search over those errors
+	 * @param targetLeaves	the most leaves to draw
+	 * @return	the render threshold chosen
+	 */
+	public double autoTuneLeaves(int targetLeaves){
+		//errors of the split nodes, the only thresholds where the cut changes
+		double[][] errors = {new double[Math.max(1, this.numLeaves)]};
+		int[] found = {0};
+		walk(this.root, Integer.MAX_VALUE, Double.NEGATIVE_INFINITY, n -> {
+			if (n.nWest != null) {
+				if (found[0] == errors[0].length) {
+					errors[0] = Arrays.copyOf(errors[0], errors[0].length * 2);
 				}
-				if (n.nEast != null){
-					s.push(n.nEast);
+				errors[0][found[0]++] = n.error;
+			}
+			return NodeVisitor.Result.CONTINUE;
+		});
+		return autoTuneLeaves(targetLeaves, errors[0], found[0]);
+	}
+
+	/** Method that does the binary search of autoTuneLeaves
+	 * @param targetLeaves	the most leaves to draw
+	 * @param errors	errors of the split nodes, in any order
+	 * @param count	number of errors
+	 * @return	the render threshold chosen
+	 */
+	private double autoTuneLeaves(int targetLeaves, double[] errors, int count){
+		if (count == 0) {
+			return this.cut;
+		}
+		Arrays.sort(errors, 0, count);
+		if (countLeaves(Double.NEGATIVE_INFINITY) <= targetLeaves) {
+			//the whole tree fits, cut just below the smallest error
+			setRenderThreshold(Math.nextDown(errors[0]));
+			return this.cut;
+		}
+		//cutting at the biggest error leaves only the root, so hi always fits the target
+		int lo = 0;
+		int hi = count - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (countLeaves(errors[mid]) <= targetLeaves) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		setRenderThreshold(errors[lo]);
+		return this.cut;
+	}
+
+	/** Method that sets the render threshold to the lowest one whose leaves are at most a
+	 * 	fraction of the pixels, the compression level used by compressToLevel
+	 * @param compressionLevel	leaves per pixel, between 0 and 1
+	 * @return	the render threshold chosen
+	 */
+	public double autoTuneCompression(double compressionLevel){
+		return autoTuneLeaves((int) Math.max(1, Math.round(compressionLevel * this.size)));
+	}
+
+	/** Method that brings the tree and the modified image up to date after the pixels of a
+	 * 	rectangle of the picture were changed in place. Only the nodes over the rectangle are
+	 * 	measured again, and they are split or merged as the threshold asks. The renderer used
+	 * 	last then redraws the rectangle and the regions of the nodes whose shape changed
+	 * @param startRow	row index of top left corner of the changed rectangle
+	 * @param startCol	column index of top left corner of the changed rectangle
+	 * @param width	width of the changed rectangle
+	 * @param height	height of the changed rectangle
+	 */
+	public void update(int startRow, int startCol, int width, int height){
+		List<int[]> regions = new ArrayList<int[]>();
+		regions.add(new int[] {startRow, startCol, width, height});
+		update(regions);
+	}
+
+	/** Method that moves the tree on to the next frame of a sequence. The frame is compared
+	 * 	with the picture a band of rows at a time, the changed pixels are copied into the picture
+	 * 	and every band with changes is updated as one rectangle, see update(int, int, int, int)
+	 * @param frame	the next frame, the same size as the picture
+	 * @return	the number of rectangles that changed, 0 if the frame is the same as the picture
+	 */
+	public int update(PixelBuffer frame){
+		if (frame.getWidth() != this.width || frame.getHeight() != this.height) {
+			throw new IllegalArgumentException("frame is " + frame.getWidth() + "x" +
+											   frame.getHeight() + ", picture is " +
+											   this.width + "x" + this.height);
+		}
+		List<int[]> regions = new ArrayList<int[]>();
+		int[] before = new int[this.width];
+		int[] after = new int[this.width];
+		for (int bandStart = 0; bandStart < this.height; bandStart += DIFF_BAND) {
+			int bandEnd = Math.min(this.height, bandStart + DIFF_BAND);
+			int minRow = -1;
+			int maxRow = -1;
+			int minCol = this.width;
+			int maxCol = -1;
+			for (int row = bandStart; row < bandEnd; row++) {
+				this.colors.getRow(row, 0, this.width, before, 0);
+				frame.getRow(row, 0, this.width, after, 0);
+				int first = 0;
+				while (first < this.width && (before[first] & 0xFFFFFF) == (after[first] & 0xFFFFFF)) {
+					first++;
 				}
-				if (n.sWest != null){
-					s.push(n.sWest);
+				if (first == this.width) {
+					continue;
 				}
-				if (n.sEast != null){
-					s.push(n.sEast);
+				int last = this.width - 1;
+				while ((before[last] & 0xFFFFFF) == (after[last] & 0xFFFFFF)) {
+					last--;
 				}
+				this.colors.setRow(row, first, last - first + 1, after, first);
+				if (minRow < 0) {
+					minRow = row;
+				}
+				maxRow = row;
+				minCol = Math.min(minCol, first);
+				maxCol = Math.max(maxCol, last);
+			}
+			if (minRow >= 0) {
+				regions.add(new int[] {minRow, minCol, maxCol - minCol + 1, maxRow - minRow + 1});
 			}
 		}
+		update(regions);
+		return regions.size();
 	}
 
-	/** Method that gets the leaves of the quad tree
-	 * @return ArrayList of the leaf nodes of the quad tree
+	/** Method that updates the summed-area tables and the tree for changed rectangles, then
+	 * 	redraws what changed with the renderer used last
+	 * @param regions	the changed rectangles as {startRow, startCol, width, height}
 	 */
-	private Node[] getLeaves(){
-		Node[] leaves = new Node[this.numLeaves];
-		dfsLeaves(leaves);
-		return leaves;
-	}
-	
-	/** Method that fills up a triple integer array in the region that a node occupies with the
-	 * 	node's average color of that region
-	 * @param leaf	the leaf node 
-	 */
-	private void nodeToRectangle(Node leaf) {
-		int minRow = leaf.startRow;
-		int maxRow = minRow + leaf.height;
-		int minCol = leaf.startCol;
-		int maxCol = minCol + leaf.width;
-		for (int row = minRow; row < maxRow; row++ ) {
-			for (int col = minCol; col < maxCol; col++) {
-				this.modified[row][col][0] = leaf.avgColor[0];
-				this.modified[row][col][1] = leaf.avgColor[1];
-				this.modified[row][col][2] = leaf.avgColor[2];
+	private void update(List<int[]> regions){
+		List<int[]> dirty = new ArrayList<int[]>();
+		for (int[] region: regions) {
+			int startRow = Math.max(0, region[0]);
+			int startCol = Math.max(0, region[1]);
+			int endRow = Math.min(this.height, region[0] + region[3]);
+			int endCol = Math.min(this.width, region[1] + region[2]);
+			if (startRow >= endRow || startCol >= endCol) {
+				continue;
+			}
+			this.integral.update(this.colors, startRow, startCol, endCol - startCol, endRow - startRow);
+			this.numLeaves += updateNode(this.root, startRow, startCol, endCol - startCol,
+										 endRow - startRow, dirty);
+			dirty.add(new int[] {startRow, startCol, endCol - startCol, endRow - startRow});
+		}
+		if (this.lastRender != null) {
+			for (int[] region: dirty) {
+				this.lastRender.region(region[0], region[1], region[2], region[3]);
 			}
 		}
 	}
 
-	/** Method that fills up a triple integer array in the region that a node occupies with the
-	 * 	node's average color of that region, and outlines the border of the region 
-	 * @param leaf	the leaf node 
-	 */
-	private void outlineLeafCompressed(Node leaf) {
-		int minRow = leaf.startRow;
-		int maxRow = minRow + leaf.height;
-		int minCol = leaf.startCol;
-		int maxCol = minCol + leaf.width;
-		for (int row = minRow; row < maxRow; row++ ) {
-			for (int col = minCol; col < maxCol; col++) {
-				if (onBorder(row, col, minRow, maxRow - 1, minCol, maxCol - 1)) {
-					//if on the border, draw the outline of the black square
-					this.modified[row][col][0] = 0;
-					this.modified[row][col][1] = 0;
-					this.modified[row][col][2] = 0;
-				} else {
-					//else, fill the inside of the square with the average color
-					this.modified[row][col][0] = leaf.avgColor[0];
-					this.modified[row][col][1] = leaf.avgColor[1];
-					this.modified[row][col][2] = leaf.avgColor[2];
-				}
+	/** Method that measures a node over a changed rectangle again and splits, merges or
+	 * 	updates its subtree to match. Nodes that don't overlap the rectangle are left as they are
+	 * @param n	the node
+	 * @param startRow	row index of top left corner of the changed rectangle
+	 * @param startCol	column index of top left corner of the changed rectangle
+	 * @param width	width of the changed rectangle
+	 * @param height	height of the changed rectangle
+	 * @param dirty	list the regions of nodes that are drawn differently are added to
+	 * @return	the change in the number of leaves drawn under the node
+	 */
+	private int updateNode(Node n, int startRow, int startCol, int width, int height,
+						   List<int[]> dirty){
+		if (!intersects(n, startRow, startCol, width, height)) {
+			return 0;
+		}
+		boolean wasSplit = n.nWest != null;
+		boolean wasLeaf = n.isLeaf();
+		n.avgColor = n.meanColor();
+		boolean splitNow = n.height > 1 && n.width > 1 && !reachThreshold(n);
+		boolean leafNow = !splitNow || n.error <= this.cut;
+		if (wasSplit && splitNow) {
+			//leaves drawn under the node before, only needed if the cut moved past it
+			int oldLeaves = wasLeaf == leafNow ? 0 : countOldLeaves(n, wasLeaf);
+			int change = 0;
+			for (int q = 0; q < 4; q++) {
+				change += updateNode(n.child(q), startRow, startCol, width, height, dirty);
+			}
+			if (wasLeaf == leafNow) {
+				return wasLeaf ? 0 : change;
+			}
+			dirty.add(new int[] {n.startRow, n.startCol, n.width, n.height});
+			return (leafNow ? 1 : countLeaves(n, this.cut)) - oldLeaves;
+		}
+		if (wasSplit) {
+			int oldLeaves = countOldLeaves(n, wasLeaf);
+			n.nWest = null;
+			n.nEast = null;
+			n.sWest = null;
+			n.sEast = null;
+			dirty.add(new int[] {n.startRow, n.startCol, n.width, n.height});
+			return 1 - oldLeaves;
+		}
+		if (splitNow) {
+			makeChildren(n);
+			for (int q = 0; q < 4; q++) {
+				insertChildren(n.child(q));
 			}
+			dirty.add(new int[] {n.startRow, n.startCol, n.width, n.height});
+			return (leafNow ? 1 : countLeaves(n, this.cut)) - 1;
 		}
+		return 0;
+	}
+
+	/** Method that counts the leaves drawn under a split node before its own error was measured
+	 * 	again, which only its children still tell
+	 * @param n	the node
+	 * @param wasLeaf	true if the node itself was drawn as a leaf
+	 * @return	the number of leaves
+	 */
+	private int countOldLeaves(Node n, boolean wasLeaf){
+		if (wasLeaf) {
+			return 1;
+		}
+		int leaves = 0;
+		for (int q = 0; q < 4; q++) {
+			leaves += countLeaves(n.child(q), this.cut);
+		}
+		return leaves;
+	}
+
+	/** Method that wraps a renderer so it redraws a rectangle grown by a radius on every side,
+	 * 	for filters whose output pixels read the pixels around them
+	 * @param radius	pixels the filter reads past each output pixel
+	 * @param repaint	the renderer
+	 * @return	the wrapped renderer
+	 */
+	private Repaint grown(int radius, Repaint repaint){
+		return (startRow, startCol, width, height) -> {
+			int top = Math.max(0, startRow - radius);
+			int left = Math.max(0, startCol - radius);
+			int bottom = Math.min(this.height, startRow + height + radius);
+			int right = Math.min(this.width, startCol + width + radius);
+			repaint.region(top, left, right - left, bottom - top);
+		};
+	}
+
+	/** Method that draws the leaves of the tree into a buffer in parallel chunks
+	 * @param style	LeafRasterizer.OUTLINE or LeafRasterizer.OUTLINE_COMPRESSED
+	 * @param cut	render threshold deciding which nodes are leaves
+	 * @param leaves	number of leaves at that threshold
+	 * @param dst	the buffer to draw into
+	 */
+	private void rasterizeLeaves(int style, double cut, int leaves, PixelBuffer dst) {
+		LeafRasterizer raster = new LeafRasterizer(this.colors, dst, style, leaves);
+		walk(this.root, Integer.MAX_VALUE, cut, n -> {
+			if (n.isLeaf(cut)) {
+				raster.add(n.startRow, n.startCol, n.width, n.height, n.avgRGB());
+			}
+			return NodeVisitor.Result.CONTINUE;
+		});
+		raster.draw();
+	}
+
+	/** Method that redraws the leaves that overlap a rectangle of a buffer
+	 * @param style	LeafRasterizer.OUTLINE or LeafRasterizer.OUTLINE_COMPRESSED
+	 * @param dst	the buffer to draw into
+	 */
+	private void rasterizeLeaves(int style, PixelBuffer dst, int startRow, int startCol, int width,
+								 int height) {
+		LeafRasterizer raster = new LeafRasterizer(this.colors, dst, style, 64);
+		forEachLeaf(startRow, startCol, width, height, leaf ->
+			raster.add(leaf.startRow, leaf.startCol, leaf.width, leaf.height, leaf.avgRGB()));
+		raster.draw();
 	}
 
-	/** Method that fills a triple integer array that is the same size as the picture with the 
-	 * rgb values of each pixel with an outline filter
+	/** Method that fills the modified image with the average color of each leaf and outlines
+	 * 	the leaves in black
 	 */
 	public void outlineCompressed() {
-		Node[] leaves = getLeaves();
-		for (Node leaf: leaves) {
-		// fill the triple integer array with the average colors of each node in their respective
-		//regions and outline those regions
-			outlineLeafCompressed(leaf);
-		}
-	}
-
-
-	private void outlineLeaf(Node leaf){
-		int minRow = leaf.startRow;
-		int maxRow = minRow + leaf.height;
-		int minCol = leaf.startCol;
-		int maxCol = minCol + leaf.width;
-		for (int row = minRow; row < maxRow; row++ ) {
-			for (int col = minCol; col < maxCol; col++) {
-				if (onBorder(row, col, minRow, maxRow - 1, minCol, maxCol - 1)) {
-					//if on the border, draw the outline of the black square
-					this.modified[row][col][0] = 0;
-					this.modified[row][col][1] = 0;
-					this.modified[row][col][2] = 0;
-				} else {
-					//else, fill the inside of the square with the average color
-					this.modified[row][col][0] = this.colors[row][col][0];
-					this.modified[row][col][1] = this.colors[row][col][1];
-					this.modified[row][col][2] = this.colors[row][col][2];
+		PixelBuffer dst = modified();
+		this.lastRender = (startRow, startCol, width, height) ->
+			rasterizeLeaves(LeafRasterizer.OUTLINE_COMPRESSED, dst, startRow, startCol, width, height);
+		outlineCompressed(dst);
+	}
+
+	/** Method that draws outlineCompressed() into a buffer
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void outlineCompressed(PixelBuffer dst) {
+		outlineCompressed(dst, this.cut, this.numLeaves);
+	}
+
+	/** Method that draws outlineCompressed() into a buffer with the tree cut at a threshold,
+	 * 	whatever its render threshold is
+	 * @param dst	the buffer, the size of the picture
+	 * @param cut	render threshold deciding which nodes are leaves
+	 * @param leaves	number of leaves at that threshold
+	 */
+	void outlineCompressed(PixelBuffer dst, double cut, int leaves) {
+		checkSize(dst);
+		rasterizeLeaves(LeafRasterizer.OUTLINE_COMPRESSED, cut, leaves, dst);
+	}
+
+	/** Method that fills the modified image with the original picture and outlines the leaves
+	 * 	in black
+	 */
+	public void outline(){
+		PixelBuffer dst = modified();
+		this.lastRender = (startRow, startCol, width, height) ->
+			rasterizeLeaves(LeafRasterizer.OUTLINE, dst, startRow, startCol, width, height);
+		outline(dst);
+	}
+
+	/** Method that draws outline() into a buffer
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void outline(PixelBuffer dst){
+		outline(dst, this.cut, this.numLeaves);
+	}
+
+	/** Method that draws outline() into a buffer with the tree cut at a threshold, whatever its
+	 * 	render threshold is
+	 * @param dst	the buffer, the size of the picture
+	 * @param cut	render threshold deciding which nodes are leaves
+	 * @param leaves	number of leaves at that threshold
+	 */
+	void outline(PixelBuffer dst, double cut, int leaves){
+		checkSize(dst);
+		rasterizeLeaves(LeafRasterizer.OUTLINE, cut, leaves, dst);
+	}
+
+	/** Method that runs an action on every leaf that overlaps a rectangle, skipping the subtrees
+	 * 	that don't
+	 * @param startRow	row index of top left corner of the rectangle
+	 * @param startCol	column index of top left corner of the rectangle
+	 * @param width	width of the rectangle
+	 * @param height	height of the rectangle
+	 * @param action	the action
+	 */
+	public void forEachLeaf(int startRow, int startCol, int width, int height, Consumer<Node> action) {
+		walk(this.root, Integer.MAX_VALUE, this.cut, n -> {
+			if (!intersects(n, startRow, startCol, width, height)) {
+				return NodeVisitor.Result.SKIP_CHILDREN;
+			}
+			if (n.isLeaf()) {
+				action.accept(n);
+			}
+			return NodeVisitor.Result.CONTINUE;
+		});
+	}
+
+	/** Method that streams every leaf of the tree to an action, depth first
+	 * @param action	the action
+	 */
+	public void forEachLeaf(Consumer<Node> action) {
+		walk(this.root, Integer.MAX_VALUE, this.cut, n -> {
+			if (n.isLeaf()) {
+				action.accept(n);
+			}
+			return NodeVisitor.Result.CONTINUE;
+		});
+	}
+
+	/** Method that streams every node on a level of the tree to an action, without going below
+	 * 	the level
+	 * @param level	the level
+	 * @param action	the action
+	 */
+	public void forEachNodeAtLevel(int level, Consumer<Node> action) {
+		walk(this.root, level, this.cut, n -> {
+			if (n.level == level) {
+				action.accept(n);
+			}
+			return NodeVisitor.Result.CONTINUE;
+		});
+	}
+
+	/** Method that walks the tree depth first, parents before children and children in the
+	 * 	order north west, north east, south west, south east, handing every node to a visitor.
+	 * 	The walk uses one array as its stack, sized from the deepest the tree can be, and
+	 * 	allocates nothing per node
+	 * @param maxLevel	the deepest level to visit
+	 * @param visitor	decides after each node whether to go below it, skip it or stop
+	 * @return	false if the visitor stopped the walk
+	 */
+	public boolean walk(int maxLevel, NodeVisitor visitor) {
+		return walk(this.root, maxLevel, this.cut, visitor);
+	}
+
+	/** Method that walks the whole tree, see walk(int, NodeVisitor)
+	 * @param visitor	decides after each node whether to go below it, skip it or stop
+	 * @return	false if the visitor stopped the walk
+	 */
+	public boolean walk(NodeVisitor visitor) {
+		return walk(this.root, Integer.MAX_VALUE, this.cut, visitor);
+	}
+
+	/** Method that walks a subtree depth first
+	 * @param subtree	the node to start at
+	 * @param maxLevel	the deepest level to visit
+	 * @param cut	render threshold deciding which nodes are leaves
+	 * @param visitor	decides after each node whether to go below it, skip it or stop
+	 * @return	false if the visitor stopped the walk
+	 */
+	private boolean walk(Node subtree, int maxLevel, double cut, NodeVisitor visitor) {
+		//every split halves the shorter side and needs it longer than 1, so no node is deeper
+		//than the bit length of the longer side, and a depth first walk keeps at most 3 nodes
+		//per level on its stack plus the one being visited
+		int maxDepth = 32 - Integer.numberOfLeadingZeros(Math.max(this.width, this.height));
+		Node[] stack = new Node[3 * (maxDepth - subtree.level) + 1];
+		int top = 0;
+		stack[top++] = subtree;
+		while (top > 0) {
+			Node n = stack[--top];
+			NodeVisitor.Result result = visitor.visit(n);
+			if (result == NodeVisitor.Result.STOP) {
+				return false;
+			}
+			if (result == NodeVisitor.Result.CONTINUE && n.level < maxLevel && !n.isLeaf(cut)) {
+				for (int q = 3; q >= 0; q--) {
+					stack[top++] = n.child(q);
 				}
 			}
 		}
+		return true;
 	}
 
-	public void outline(){
-		Node[] leaves = getLeaves();
-		for (Node leaf: leaves) {
-		// fill the triple integer array with the average colors of each node in their respective
-		//regions and outline those regions
-			outlineLeaf(leaf);
+	/** Method for determining whether the region of a node overlaps a rectangle
+	 * @return	true if they share at least one pixel
+	 */
+	private static boolean intersects(Node node, int startRow, int startCol, int width, int height) {
+		return node.startRow < startRow + height && startRow < node.startRow + node.height &&
+			   node.startCol < startCol + width && startCol < node.startCol + node.width;
+	}
+
+	/** Method that gets the leaves that overlap a rectangle, such as a viewport
+	 * @param startRow	row index of top left corner of the rectangle
+	 * @param startCol	column index of top left corner of the rectangle
+	 * @param width	width of the rectangle
+	 * @param height	height of the rectangle
+	 * @return	the leaves, in depth first order
+	 */
+	public List<Node> leavesIn(int startRow, int startCol, int width, int height) {
+		List<Node> leaves = new ArrayList<Node>();
+		forEachLeaf(startRow, startCol, width, height, leaves::add);
+		return leaves;
+	}
+
+	/** Method that finds the leaf covering a pixel by descending from the root, one node per
+	 * 	level. A point outside the picture is moved to the nearest edge pixel, so the leaf
+	 * 	returned is the one nearest to it
+	 * @param row	row of the pixel
+	 * @param col	column of the pixel
+	 * @return	the leaf
+	 */
+	public Node leafAt(int row, int col) {
+		row = Math.min(this.height - 1, Math.max(0, row));
+		col = Math.min(this.width - 1, Math.max(0, col));
+		Node n = this.root;
+		while (!n.isLeaf()) {
+			n = n.child(quadrant(n, row, col));
+		}
+		return n;
+	}
+
+	/** Method that finds the leaves covering many pixels at once. The points are partitioned
+	 * 	among the four children at each node on the way down, so every node is visited once per
+	 * 	call instead of once per point
+	 * @param rows	rows of the pixels
+	 * @param cols	columns of the pixels, the same length as rows
+	 * @return	the leaf covering each pixel, in the order of the points. Points outside the
+	 * 			picture get the nearest leaf, as in leafAt
+	 */
+	public Node[] leavesAt(int[] rows, int[] cols) {
+		if (rows.length != cols.length) {
+			throw new IllegalArgumentException("rows and cols must have the same length");
+		}
+		int n = rows.length;
+		int[] clampedRows = new int[n];
+		int[] clampedCols = new int[n];
+		//indices of the points, reordered so the points under each node are contiguous
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			clampedRows[i] = Math.min(this.height - 1, Math.max(0, rows[i]));
+			clampedCols[i] = Math.min(this.width - 1, Math.max(0, cols[i]));
+			order[i] = i;
 		}
+		Node[] leaves = new Node[n];
+		if (n > 0) {
+			leavesAt(this.root, clampedRows, clampedCols, order, 0, n, leaves);
+		}
+		return leaves;
+	}
+
+	/** Method that answers the points order[from, to), which all lie under a node
+	 * @param node	the node
+	 * @param rows	rows of the points, inside the picture
+	 * @param cols	columns of the points, inside the picture
+	 * @param order	indices of the points, partitioned in place
+	 * @param from	first index into order of the node's points
+	 * @param to	index after the last
+	 * @param leaves	the answer, indexed by point
+	 */
+	private void leavesAt(Node node, int[] rows, int[] cols, int[] order, int from, int to,
+						  Node[] leaves) {
+		if (node.isLeaf()) {
+			for (int i = from; i < to; i++) {
+				leaves[order[i]] = node;
+			}
+			return;
+		}
+		int midRow = node.startRow + node.height / 2;
+		int midCol = node.startCol + node.width / 2;
+		//north points to the front, then west points to the front of each half
+		int south = partition(order, from, to, rows, midRow);
+		int northEast = partition(order, from, south, cols, midCol);
+		int southEast = partition(order, south, to, cols, midCol);
+		int[] bounds = {from, northEast, south, southEast, to};
+		for (int q = 0; q < 4; q++) {
+			if (bounds[q] < bounds[q + 1]) {
+				leavesAt(node.child(q), rows, cols, order, bounds[q], bounds[q + 1], leaves);
+			}
+		}
+	}
+
+	/** Method that moves the points whose coordinate is below a split to the front of a range
+	 * @param order	indices of the points
+	 * @param from	first index of the range
+	 * @param to	index after the last
+	 * @param coords	the coordinate of each point to compare
+	 * @param split	the first coordinate of the back part
+	 * @return	the index of the first point of the back part
+	 */
+	private static int partition(int[] order, int from, int to, int[] coords, int split) {
+		int front = from;
+		for (int i = from; i < to; i++) {
+			if (coords[order[i]] < split) {
+				int swap = order[front];
+				order[front] = order[i];
+				order[i] = swap;
+				front++;
+			}
+		}
+		return front;
+	}
+
+	/** Method that gets the quadrant of a node a pixel lies in
+	 * @return	0 for north west, 1 for north east, 2 for south west, 3 for south east
+	 */
+	private static int quadrant(Node node, int row, int col) {
+		return (row >= node.startRow + node.height / 2 ? 2 : 0) +
+			   (col >= node.startCol + node.width / 2 ? 1 : 0);
 	}
 
 	/** Method that gets the level of the quad tree that has a compression level just above the
@@ -382,214 +1079,488 @@ public class QuadTree {
 		return k;
 	}
 	
-	private void bfsNodesAtLevel(ArrayList<Node> nodesAtDepth, int level){
-		Queue<Node> q = new LinkedList<Node>();
-		q.add(this.root);
-		while (!q.isEmpty()){
-			Node n = q.poll();
-			if (n.level == level){
-				nodesAtDepth.add(n);
-			}
-			if (n.nWest != null){
-				q.add(n.nWest);
-			}
-			if (n.nEast != null){
-				q.add(n.nEast);
-			}
-			if (n.sWest != null){
-				q.add(n.sWest);
+	/** Method that fills the modified image with the average colors of the tree cut at the level
+	 * 	whose compression level is just above the requested one. Leaves above that level are
+	 * 	drawn with their own color
+	 * @param compressionLevel	the compression level asked for
+	 */
+	public void compressToLevel(double compressionLevel) {
+		int[] levels = {compressionLevelToDepth(compressionLevel)};
+		PixelBuffer[] targets = {modified()};
+		this.lastRender = (startRow, startCol, width, height) ->
+			paintLevels(levels, targets, this.cut, startRow, startCol, width, height);
+		paintLevels(levels, targets, this.cut, 0, 0, this.width, this.height);
+	}
+
+	/** Method that draws compressToLevel(compressionLevel) into a buffer
+	 * @param compressionLevel	the compression level asked for
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void compressToLevel(double compressionLevel, PixelBuffer dst) {
+		compressToLevel(compressionLevel, dst, this.cut);
+	}
+
+	/** Method that draws compressToLevel(compressionLevel) into a buffer with the tree cut at a
+	 * 	threshold, whatever its render threshold is
+	 * @param compressionLevel	the compression level asked for
+	 * @param dst	the buffer, the size of the picture
+	 * @param cut	render threshold deciding which nodes are leaves
+	 */
+	void compressToLevel(double compressionLevel, PixelBuffer dst, double cut) {
+		checkSize(dst);
+		paintLevels(new int[] {compressionLevelToDepth(compressionLevel)}, new PixelBuffer[] {dst},
+					cut, 0, 0, this.width, this.height);
+	}
+
+	/** Method that gets the level of the deepest node of the tree
+	 * @return	the depth of the tree
+	 */
+	public int getDepth() {
+		int[] depth = {0};
+		walk(n -> {
+			depth[0] = Math.max(depth[0], n.level);
+			return NodeVisitor.Result.CONTINUE;
+		});
+		return depth[0];
+	}
+
+	/** Method that takes a snapshot of the shape of the tree in one walk. A node's error is
+	 * 	computed by the build exactly when the node is at least 2 by 2 pixels, so the count of
+	 * 	error computations is read off the tree instead of being counted during the build. The
+	 * 	whole built tree is walked, whatever setRenderThreshold cut it at, so the counts always
+	 * 	go with the build threshold they are reported with
+	 * @return	the statistics of the tree as last built
+	 */
+	public TreeStats getStats() {
+		int maxDepth = 32 - Integer.numberOfLeadingZeros(Math.max(this.width, this.height));
+		int[] nodesPerLevel = new int[maxDepth + 1];
+		int[] leavesPerLevel = new int[maxDepth + 1];
+		//deepest level seen, error computations and leaves at threshold
+		long[] counts = new long[3];
+		//no error is below the cut, so only nodes the build did not split are leaves
+		double built = Double.NEGATIVE_INFINITY;
+		walk(this.root, Integer.MAX_VALUE, built, n -> {
+			counts[0] = Math.max(counts[0], n.level);
+			nodesPerLevel[n.level]++;
+			boolean splittable = n.width > 1 && n.height > 1;
+			if (splittable) {
+				counts[1]++;
 			}
-			if (n.sEast != null){
-				q.add(n.sEast);
+			if (n.isLeaf(built)) {
+				leavesPerLevel[n.level]++;
+				if (splittable) {
+					counts[2]++;
+				}
 			}
+			return NodeVisitor.Result.CONTINUE;
+		});
+		int maxLevel = (int) counts[0];
+		return new TreeStats(this.threshold, Arrays.copyOf(nodesPerLevel, maxLevel + 1),
+							 Arrays.copyOf(leavesPerLevel, maxLevel + 1), counts[1],
+							 (int) counts[2], this.buildNanos);
+	}
+
+	/** Method that renders every zoom level, 0 through the first full size one or getDepth(),
+	 * 	whichever is deeper
+	 * @return	one picture per level, see renderPyramid(int...)
+	 */
+	public PixelBuffer[] renderPyramid() {
+		int top = 32 - Integer.numberOfLeadingZeros(Math.max(this.width, this.height) - 1);
+		int[] levels = new int[Math.max(top, getDepth()) + 1];
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = i;
 		}
+		return renderPyramid(levels);
 	}
-	
-	/** Method that gets the nodes at the requested level of the quad tree
-	 * @param level the requested level
-	 * @return ArrayList of the nodes at the requested level
+
+	/** Method that renders the tree cut at several levels in one walk of the tree. With D the
+	 * 	smallest power of two, 2^D, at least as long as the longer side, each pixel of level k
+	 * 	covers a 2^(D-k) by 2^(D-k) square of the picture, so level k is ceil(width / 2^(D-k)) by
+	 * 	ceil(height / 2^(D-k)) pixels and levels D and deeper are full size. Every level keeps the
+	 * 	aspect ratio of the picture and each is half the scale of the next, as zoom levels are
+	 * @param levels	the levels to render
+	 * @return	one picture per requested level, in the same order
 	 */
-	private ArrayList<Node> getLeavesAtLevel(int level){
-		ArrayList<Node> nodesAtDepth = new ArrayList<Node>();
-		bfsNodesAtLevel(nodesAtDepth, level);
-		return nodesAtDepth;
+	public PixelBuffer[] renderPyramid(int... levels) {
+		int top = 32 - Integer.numberOfLeadingZeros(Math.max(this.width, this.height) - 1);
+		PixelBuffer[] pyramid = new PixelBuffer[levels.length];
+		for (int i = 0; i < levels.length; i++) {
+			int shift = Math.min(31, Math.max(0, top - levels[i]));
+			pyramid[i] = PixelBuffer.allocate((int) ((this.width - 1L >> shift) + 1),
+											  (int) ((this.height - 1L >> shift) + 1));
+		}
+		paintLevels(levels, pyramid, this.cut, 0, 0, this.width, this.height);
+		return pyramid;
 	}
-	
-	/** Method that fills a triple integer array that is the same size as the picture with the 
-	 * rgb values of each pixel with a compressed filter to a compression level that is 
-	 * approximately equal to the requested level
-	 * @param compressionLevel
-	 * @return 	the triple integer array of rgb values of the outline filter
-	 */
-	private void compressToLevel(double compressionLevel) {
-		ArrayList<Node> leaves = getLeavesAtLevel(
-					compressionLevelToDepth(compressionLevel) //approximate compression level
-					);
-		for (Node leaf: leaves) {
-		// fill the triple integer array with the average colors of each node in their respective
-		//regions 
-			nodeToRectangle(leaf);
-		}
-	}	
-	
-	/**
-	 * get the convoluted rgb value for one pixel with an n by n kernel 
-	 * where n is odd
-	 * @param kernel	n by n kernel of weights
-	 * @param row	row of rgb 
-	 * @param col	col of rgb
-	 * @return	convoluted rgb as int[3]
-	 */
-	private int[] kernelN(double[][] kernel, int row, int col){
-		int redOut = 0;
-		int greenOut = 0;
-		int blueOut = 0;
-		int mid = kernel.length / 2;
-		for (int r = row - mid; r <= row + mid; r++) {
-			for(int c = col - 1; c <= col + 1; c++) {
-				double weight = kernel[r - (row - mid)][c - (col - mid)];
-				if (r <= 0 && c <= 0){
-					// top left corner
-					redOut += (int)(weight*colors[0][0][0]);
-					greenOut += (int)(weight*colors[0][0][1]);
-					blueOut += weight*colors[0][0][2];
-				} else if (r < 0 && c >= 1 && c < this.width){
-					// top
-					redOut += (int)(weight*colors[0][c][0]);
-					greenOut += (int)(weight*colors[0][c][1]);
-					blueOut += (int)(weight*colors[0][c][2]);
-				} else if (r <= 0 && c >= this.width - 1){
-					// top right corner
-					redOut += (int)(weight*colors[0][this.width - 1][0]);
-					greenOut += (int)(weight*colors[0][this.width - 1][1]);
-					blueOut += (int)(weight*colors[0][this.width - 1][2]);
-				} else if (r > 0 && r < this.height - 1 && c >= this.width){
-					// right
-					redOut += (int)(weight*colors[r][this.width - 1][0]);
-					greenOut += (int)(weight*colors[r][this.width - 1][1]);
-					blueOut += (int)(weight*colors[r][this.width - 1][2]);
-				} else if (r >= this.height - 1 && c >= this.width - 1){
-					// bottom right corner
-					redOut += (int)(weight*colors[this.height - 1][this.width - 1][0]);
-					greenOut += (int)(weight*colors[this.height - 1][this.width - 1][1]);
-					blueOut += (int)(weight*colors[this.height - 1][this.width - 1][2]);
-				} else if (r >= this.height && c >= 0 && c < this.width){
-					// bottom
-					redOut += weight*colors[this.height - 1][c][0];
-					greenOut += weight*colors[this.height - 1][c][1];
-					blueOut += weight*colors[this.height - 1][c][2];
-				} else if (r >= this.height - 1 && c <= 0){
-					// bottom left corner
-					redOut += (int)(weight*colors[this.height - 1][0][0]);
-					greenOut += (int)(weight*colors[this.height - 1][0][1]);
-					blueOut += (int)(weight*colors[this.height - 1][0][2]);
-				} else if (r > 0 && r < this.height - 1 && c < 0){
-					// left
-					redOut += (int)(weight*colors[r][0][0]);
-					greenOut += (int)(weight*colors[r][0][1]);
-					blueOut += (int)(weight*colors[r][0][2]);
-				} else {
-					// inside
-					redOut += (int)(weight*colors[r][c][0]);
-					greenOut += (int)(weight*colors[r][c][1]);
-					blueOut += (int)(weight*colors[r][c][2]);
+
+	/** Method that walks the tree once down to the deepest requested level and paints each node
+	 * 	into the picture of every level it shows on: its own level, and every deeper level if it
+	 * 	is a leaf
+	 * @param levels	the levels to paint
+	 * @param targets	the picture of each level. Node regions are scaled to its size
+	 * @param cut	render threshold deciding which nodes are leaves
+	 * @param startRow	row index of top left corner of the part of the picture to paint
+	 * @param startCol	column index of top left corner of the part of the picture to paint
+	 * @param width	width of the part of the picture to paint
+	 * @param height	height of the part of the picture to paint
+	 */
+	private void paintLevels(int[] levels, PixelBuffer[] targets, double cut, int startRow,
+							 int startCol, int width, int height) {
+		int maxLevel = 0;
+		for (int level: levels) {
+			maxLevel = Math.max(maxLevel, level);
+		}
+		walk(this.root, maxLevel, cut, n -> {
+			if (!intersects(n, startRow, startCol, width, height)) {
+				return NodeVisitor.Result.SKIP_CHILDREN;
+			}
+			boolean leaf = n.isLeaf(cut);
+			int rgb = -1;
+			for (int i = 0; i < levels.length; i++) {
+				if (n.level == levels[i] || (leaf && n.level < levels[i])) {
+					if (rgb < 0) {
+						rgb = n.avgRGB();
+					}
+					paintScaled(n, targets[i], rgb);
 				}
 			}
-		}
-		int[] newRGB = {redOut, greenOut, blueOut};
-		return newRGB;
+			return NodeVisitor.Result.CONTINUE;
+		});
 	}
 
-	private void convolution(double[][] kernel){
-		for (int r = 0; r < this.height; r++){
-			for(int c = 0; c < this.width; c++){
-				int[] rgbNew = kernelN(kernel, r, c);	
-				this.modified[r][c][0] = rgbNew[0];
-				this.modified[r][c][1] = rgbNew[1];
-				this.modified[r][c][2] = rgbNew[2]; 
-			}
+	/** Method that fills the region of a node, scaled from the size of the picture to the size
+	 * 	of the target, with a color. A node smaller than a target pixel still fills one pixel
+	 * @param node	the node
+	 * @param target	the picture to paint into
+	 * @param rgb	the color
+	 */
+	private void paintScaled(Node node, PixelBuffer target, int rgb) {
+		int targetWidth = target.getWidth();
+		int targetHeight = target.getHeight();
+		int minRow = (int) ((long) node.startRow * targetHeight / this.height);
+		int maxRow = (int) ((long) (node.startRow + node.height) * targetHeight / this.height);
+		int minCol = (int) ((long) node.startCol * targetWidth / this.width);
+		int maxCol = (int) ((long) (node.startCol + node.width) * targetWidth / this.width);
+		maxRow = Math.min(targetHeight, Math.max(maxRow, minRow + 1));
+		maxCol = Math.min(targetWidth, Math.max(maxCol, minCol + 1));
+		for (int row = minRow; row < maxRow; row++) {
+			target.fill(row, minCol, maxCol - minCol, rgb);
 		}
 	}
 
+	/** Method that fills the modified image with the original picture convolved with a kernel
+	 * @param kernel	n by n kernel of weights where n is odd
+	 */
+	public void convolution(double[][] kernel){
+		convolve(new Convolution(kernel), null);
+	}
+
+	/** Method that draws convolution(kernel) into a buffer
+	 * @param kernel	n by n kernel of weights where n is odd
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void convolution(double[][] kernel, PixelBuffer dst){
+		checkSize(dst);
+		new Convolution(kernel).apply(this.colors, dst, null, null);
+	}
+
 	public void sharpen(){
-		double[][] kernel = {
-			{-1.0/9, -1.0/9, -1.0/9},
-			{-1.0/9, 1.0, -1.0/9},
-			{-1.0/9, -1.0/9, -1.0/9}
-		};
-		convolution(kernel);
-	}
-
-	private void edgeConvolution(double[][] kernel){
-		for (int r = 0; r < this.height; r++){
-			for(int c = 0; c < this.width; c++){
-				int[] rgbNew = kernelN(kernel, r, c);	
-				if (rgbNew[0] > EDGETHRESHOLD &&
-					rgbNew[1] > EDGETHRESHOLD &&
-					rgbNew[2] > EDGETHRESHOLD){
-						//make white if close to white
-						this.modified[r][c][0] = 255;
-						this.modified[r][c][1] = 255;
-						this.modified[r][c][2] = 255;
-				} else {
-					// too much variation, make black
-					this.modified[r][c][0] = 0;
-					this.modified[r][c][1] = 0;
-					this.modified[r][c][2] = 0;
-				} 
-			}
-		}
+		convolve(SHARPEN, null);
+	}
+
+	/** Method that draws sharpen() into a buffer
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void sharpen(PixelBuffer dst){
+		checkSize(dst);
+		SHARPEN.apply(this.colors, dst, null, null);
 	}
 
 	public void edgeDetection(){
-		double[][] kernel = {
-			{-1.0, -1.0, -1.0},
-			{-1.0, 8.0, -1.0},
-			{-1.0, -1.0, -1.0}
-		};
-		edgeConvolution(kernel);
-	}
-
-	private void imgFunc(rgbFunction[] f){
-		for (int r = 0; r < this.height; r++){
-			for (int c = 0; c < this.width; c++){
-				int red = colors[r][c][0];
-				int green = colors[r][c][1];
-				int blue = colors[r][c][2];
-				this.modified[r][c][0] = f[0].run(red,green,blue);
-				this.modified[r][c][1] = f[1].run(red,green,blue);
-				this.modified[r][c][2] = f[2].run(red,green,blue);
+		convolve(EDGE, EDGE_THRESHOLD);
+	}
+
+	/** Method that draws edgeDetection() into a buffer
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void edgeDetection(PixelBuffer dst){
+		checkSize(dst);
+		EDGE.apply(this.colors, dst, null, EDGE_THRESHOLD);
+	}
+
+	/** Method that convolves the original picture into the modified image
+	 * @param convolution	the kernel
+	 * @param post	function applied to every output pixel, or null
+	 */
+	private void convolve(Convolution convolution, PixelFunction post){
+		PixelBuffer dst = modified();
+		this.lastRender = grown(convolution.getRadius(), (startRow, startCol, width, height) ->
+			convolution.apply(this.colors, dst, null, post, startRow, startCol, width, height));
+		convolution.apply(this.colors, dst, null, post);
+	}
+
+	/** Method that fills the modified image with the original picture convolved with a kernel
+	 * 	like convolution(kernel), but reads the tree to skip the work inside flat leaves. A leaf
+	 * 	whose error is at most maxError has its inside filled with the output of a window of its
+	 * 	mean color, all but a strip as wide as the kernel radius along the leaves next to it,
+	 * 	and every other pixel is convolved. With maxError 0 only leaves of one color are filled
+	 * 	and the picture is the same. Above 0, the root mean square difference of a channel over
+	 * 	the filled inside of a leaf, before rounding, is at most the sum of the absolute kernel
+	 * 	weights times sqrt(maxError * leaf area / inside area). Regions redrawn after an update
+	 * 	are convolved in full
+	 * @param kernel	n by n kernel of weights where n is odd
+	 * @param maxError	largest error of a leaf whose inside is filled
+	 */
+	public void convolution(double[][] kernel, double maxError){
+		convolveLeaves(new Convolution(kernel), null, maxError);
+	}
+
+	/** Method that draws convolution(kernel, maxError) into a buffer
+	 * @param kernel	n by n kernel of weights where n is odd
+	 * @param maxError	largest error of a leaf whose inside is filled
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void convolution(double[][] kernel, double maxError, PixelBuffer dst){
+		convolveLeaves(new Convolution(kernel), null, maxError, dst, this.cut, this.numLeaves);
+	}
+
+	/** Method that sharpens the original picture like sharpen(), skipping the work inside flat
+	 * 	leaves as in convolution(kernel, maxError)
+	 * @param maxError	largest error of a leaf whose inside is filled
+	 */
+	public void sharpen(double maxError){
+		convolveLeaves(SHARPEN, null, maxError);
+	}
+
+	/** Method that draws sharpen(maxError) into a buffer
+	 * @param maxError	largest error of a leaf whose inside is filled
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void sharpen(double maxError, PixelBuffer dst){
+		convolveLeaves(SHARPEN, null, maxError, dst, this.cut, this.numLeaves);
+	}
+
+	/** Method that finds the edges of the original picture like edgeDetection(), skipping the
+	 * 	work inside flat leaves as in convolution(kernel, maxError). The inside of a flat leaf
+	 * 	comes out black. The bound on the difference holds before the threshold, so a pixel
+	 * 	only differs where its channels were that close to EDGETHRESHOLD
+	 * @param maxError	largest error of a leaf whose inside is filled
+	 */
+	public void edgeDetection(double maxError){
+		convolveLeaves(EDGE, EDGE_THRESHOLD, maxError);
+	}
+
+	/** Method that draws edgeDetection(maxError) into a buffer
+	 * @param maxError	largest error of a leaf whose inside is filled
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void edgeDetection(double maxError, PixelBuffer dst){
+		convolveLeaves(EDGE, EDGE_THRESHOLD, maxError, dst, this.cut, this.numLeaves);
+	}
+
+	/** Method that convolves the original picture into the modified image a leaf at a time
+	 * @param convolution	the kernel
+	 * @param post	function applied to every output pixel, or null
+	 * @param maxError	largest error of a leaf whose inside is filled
+	 */
+	private void convolveLeaves(Convolution convolution, PixelFunction post, double maxError){
+		PixelBuffer dst = modified();
+		this.lastRender = grown(convolution.getRadius(), (startRow, startCol, width, height) ->
+			convolution.apply(this.colors, dst, null, post, startRow, startCol, width, height));
+		convolveLeaves(convolution, post, maxError, dst, this.cut, this.numLeaves);
+	}
+
+	/** Method that convolves the original picture into a buffer a leaf at a time, with the tree
+	 * 	cut at a threshold whatever its render threshold is
+	 * @param convolution	the kernel
+	 * @param post	function applied to every output pixel, or null
+	 * @param maxError	largest error of a leaf whose inside is filled
+	 * @param dst	the buffer, the size of the picture
+	 * @param cut	render threshold deciding which nodes are leaves
+	 * @param numLeaves	number of leaves at that threshold
+	 */
+	void convolveLeaves(Convolution convolution, PixelFunction post, double maxError,
+						PixelBuffer dst, double cut, int numLeaves){
+		checkSize(dst);
+		LeafConvolution leaves = new LeafConvolution(convolution, this.colors, dst, post,
+													 this.integral, numLeaves);
+		//the error is read again from the summed-area tables, since nodes too small to split
+		//never had theirs measured. Once too little is flat to beat a full pass, stop looking
+		walk(this.root, Integer.MAX_VALUE, cut, n -> {
+			if (n.isLeaf(cut)) {
+				leaves.add(n.startRow, n.startCol, n.width, n.height, n.avgRGB(),
+						   n.avgSqError() <= maxError);
 			}
-		}
+			return leaves.skipsEnough() ? NodeVisitor.Result.CONTINUE : NodeVisitor.Result.STOP;
+		});
+		leaves.apply();
+	}
+
+	/** Method that fills the modified image with the original picture run through a chain of
+	 * 	filters, fused into as few passes as the chain allows
+	 * @param pipeline	the chain of filters
+	 */
+	public void filter(FilterPipeline pipeline){
+		PixelBuffer dst = modified();
+		this.lastRender = grown(pipeline.radius(), (startRow, startCol, width, height) ->
+			pipeline.apply(this.colors, dst, startRow, startCol, width, height));
+		pipeline.apply(this.colors, dst);
+	}
+
+	/** Method that draws filter(pipeline) into a buffer
+	 * @param pipeline	the chain of filters
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void filter(FilterPipeline pipeline, PixelBuffer dst){
+		checkSize(dst);
+		pipeline.apply(this.colors, dst);
+	}
+
+	/** Method that fills the modified image with the original picture box blurred, every pixel
+	 * 	the mean of the square of side 2 * radius + 1 around it. Takes the same time for any
+	 * 	radius
+	 * @param radius	pixels the square reaches past its center
+	 */
+	public void boxBlur(int radius){
+		blur(new BoxBlur(radius));
+	}
+
+	/** Method that draws boxBlur(radius) into a buffer
+	 * @param radius	pixels the square reaches past its center
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void boxBlur(int radius, PixelBuffer dst){
+		checkSize(dst);
+		new BoxBlur(radius).apply(this.colors, dst);
+	}
+
+	/** Method that fills the modified image with the original picture Gaussian blurred, made
+	 * 	of three box blurs so it takes the same time for any sigma
+	 * @param sigma	standard deviation of the Gaussian in pixels
+	 */
+	public void gaussianBlur(double sigma){
+		blur(BoxBlur.gaussian(sigma));
+	}
+
+	/** Method that draws gaussianBlur(sigma) into a buffer
+	 * @param sigma	standard deviation of the Gaussian in pixels
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void gaussianBlur(double sigma, PixelBuffer dst){
+		checkSize(dst);
+		BoxBlur.gaussian(sigma).apply(this.colors, dst);
+	}
+
+	/** Method that blurs the original picture into the modified image
+	 * @param blur	the box blurs
+	 */
+	private void blur(BoxBlur blur){
+		PixelBuffer dst = modified();
+		this.lastRender = grown(blur.getRadius(), (startRow, startCol, width, height) ->
+			blur.apply(this.colors, dst, startRow, startCol, width, height));
+		blur.apply(this.colors, dst);
+	}
+
+	/** Method that fills the modified image with the original picture mapped pixel by pixel
+	 * @param function	the function applied to each pixel
+	 */
+	public void pointFilter(PixelFunction function){
+		PixelBuffer dst = modified();
+		this.lastRender = (startRow, startCol, width, height) ->
+			FilterPipeline.mapRows(this.colors, dst, function, startRow, startCol, width, height);
+		FilterPipeline.mapRows(this.colors, dst, function);
+	}
+
+	/** Method that draws pointFilter(function) into a buffer
+	 * @param function	the function applied to each pixel
+	 * @param dst	the buffer, the size of the picture
+	 */
+	public void pointFilter(PixelFunction function, PixelBuffer dst){
+		checkSize(dst);
+		FilterPipeline.mapRows(this.colors, dst, function);
 	}
 
 	public void grayScale(){
-		rgbFunction[] rgbNew = new rgbFunction[] {
-			(r, g, b) -> (int)(0.3*r + 0.59*g + 0.11*b),
-			(r, g, b) -> (int)(0.3*r + 0.59*g + 0.11*b),
-			(r, g, b) -> (int)(0.3*r + 0.59*g + 0.11*b)
-		};
-		imgFunc(rgbNew);
+		pointFilter(PixelFunction.grayScale());
+	}
+
+	public void grayScale(PixelBuffer dst){
+		pointFilter(PixelFunction.grayScale(), dst);
 	}
 
 	public void noChange(){
-		rgbFunction[] rgbNew = new rgbFunction[] {
-			(r, g, b) -> (int)(r),
-			(r, g, b) -> (int)(g),
-			(r, g, b) -> (int)(b)
-		};
-		imgFunc(rgbNew);
+		pointFilter(PixelFunction.identity());
 	}
 
-	public int[][][] getModified(){
+	public void noChange(PixelBuffer dst){
+		pointFilter(PixelFunction.identity(), dst);
+	}
+
+	/** Method that gets the modified image, allocating it the first time a renderer draws into
+	 * 	it or a caller asks for it, so trees only rendered into other buffers never hold one
+	 * @return	the modified image
+	 */
+	private PixelBuffer modified(){
+		if (this.modified == null) {
+			this.modified = PixelBuffer.allocate(this.width, this.height);
+		}
 		return this.modified;
 	}
 
+	/** Method that checks a buffer passed to a renderer is the size of the picture
+	 * @param dst	the buffer
+	 */
+	private void checkSize(PixelBuffer dst){
+		if (dst.getWidth() != this.width || dst.getHeight() != this.height) {
+			throw new IllegalArgumentException("buffer is " + dst.getWidth() + "x" + dst.getHeight() +
+											   ", the picture is " + this.width + "x" + this.height);
+		}
+	}
+
+	/** Method that copies the modified image into a triple integer array, for callers that still
+	 * 	use the [row][col][rgb] layout
+	 * @return	the rgb values of the modified image as int[height][width][3]
+	 */
+	public int[][][] getModified(){
+		return modified().toArray();
+	}
+
+	public PixelBuffer getModifiedBuffer(){
+		return modified();
+	}
+
+	public Node getRoot(){
+		return this.root;
+	}
+
+	public int getWidth(){
+		return this.width;
+	}
+
+	public int getHeight(){
+		return this.height;
+	}
+
 	public int getNumLeaves(){
 		return this.numLeaves;
 	}
 
+	public String getImageName(){
+		return this.imageName;
+	}
+
+	/** Method that names the picture, for the phases recorded while processing it
+	 * @param imageName	the name of the picture
+	 */
+	public void setImageName(String imageName){
+		this.imageName = imageName;
+	}
+
 	public void setThreshold(int threshold){
 		this.threshold = threshold;
 	}
+
+	public void setParallelThreshold(int parallelThreshold){
+		this.parallelThreshold = parallelThreshold;
+	}
 }
\ No newline at end of file
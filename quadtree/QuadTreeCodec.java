@@ -0,0 +1,386 @@
+/**File: QuadTreeCodec.java
+ * Desc:
+ * 		A compact binary format for a built quadtree and a streaming decoder for it.
+ *
+ * 		header	"QTC1", width and height as 4 byte ints, color bits per channel (1-8) and a flags
+ * 				byte (bit 0: the body is deflated)
+ * 		body	one record per level of the tree, top to bottom. A record holds the colors of
+ * 				every node on the level followed by one split bit per node, both in breadth first
+ * 				order and padded to a whole byte. A color is three channels of colorBits bits,
+ * 				each stored as the difference to the parent's channel modulo 2^colorBits, so flat
+ * 				regions give runs of zeros that deflate well. The children of a split node are on
+ * 				the next level in the order nWest, nEast, sWest, sEast, and their regions follow
+ * 				from the parent's with the same halving QuadTree uses.
+ *
+ * 		Every level is a complete picture of the tree cut at that depth, so the decoder paints a
+ * 		coarse image from the first record and refines it with each record that arrives. Given
+ * 		the picture the tree was built from, decodeTree reads the split bits back into a tree
+ * 		that every renderer can draw, without building it again.
+ */
+
+package quadtree;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public final class QuadTreeCodec {
+	private static final int MAGIC = 0x51544331;
+	//"QTC1"
+	private static final int FLAG_DEFLATE = 1;
+	//flag bit for a deflated body
+
+	private QuadTreeCodec() {
+	}
+
+	/** Method that writes a built quadtree to a stream
+	 * @param tree	the tree, after insert()
+	 * @param out	the stream to write to. It is flushed but not closed
+	 * @param colorBits	bits kept of each color channel, 8 for lossless colors
+	 * @param deflate	whether to entropy code the body with deflate
+	 * @throws IOException	if the stream can't be written
+	 */
+	public static void encode(QuadTree tree, OutputStream out, int colorBits, boolean deflate)
+			throws IOException {
+		if (colorBits < 1 || colorBits > 8) {
+			throw new IllegalArgumentException("color bits must be 1 to 8: " + colorBits);
+		}
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeInt(tree.getWidth());
+		header.writeInt(tree.getHeight());
+		header.writeByte(colorBits);
+		header.writeByte(deflate ? FLAG_DEFLATE : 0);
+		header.flush();
+		DeflaterOutputStream deflater = null;
+		OutputStream body = out;
+		if (deflate) {
+			//sync flush after each level so a decoder can use the levels it already has
+			deflater = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_COMPRESSION), true);
+			body = deflater;
+		}
+		BitWriter bits = new BitWriter(body);
+		int mask = (1 << colorBits) - 1;
+		int shift = 8 - colorBits;
+		ArrayList<QuadTree.Node> level = new ArrayList<QuadTree.Node>();
+		ArrayList<Integer> parentColors = new ArrayList<Integer>();
+		level.add(tree.getRoot());
+		parentColors.add(0);
+		while (!level.isEmpty()) {
+			ArrayList<QuadTree.Node> next = new ArrayList<QuadTree.Node>();
+			ArrayList<Integer> nextParentColors = new ArrayList<Integer>();
+			for (int i = 0; i < level.size(); i++) {
+				int quantized = quantize(level.get(i).avgRGB(), shift);
+				int parent = parentColors.get(i);
+				for (int c = 16; c >= 0; c -= 8) {
+					bits.write(((quantized >> c) - (parent >> c)) & mask, colorBits);
+				}
+				if (!level.get(i).isLeaf()) {
+					for (int q = 0; q < 4; q++) {
+						next.add(level.get(i).child(q));
+						nextParentColors.add(quantized);
+					}
+				}
+			}
+			bits.align();
+			for (QuadTree.Node node: level) {
+				bits.write(node.isLeaf() ? 0 : 1, 1);
+			}
+			bits.align();
+			body.flush();
+			level = next;
+			parentColors = nextParentColors;
+		}
+		if (deflater != null) {
+			deflater.finish();
+		}
+		out.flush();
+	}
+
+	/** Method that reads an encoded tree back into a tree over the picture it was built from.
+	 * 	The colors of the stream are skipped, since every node reads its mean from the picture,
+	 * 	and only the split bits are used, so the tree has the shape of the encoded one at any
+	 * 	color bits
+	 * @param in	the encoded tree
+	 * @param tree	a tree over the picture the encoded one was built from, with the same build
+	 * 				threshold, that has not been built yet
+	 * @throws IOException	if the stream is not an encoded tree of a picture of that size
+	 */
+	public static void decodeTree(InputStream in, QuadTree tree) throws IOException {
+		int[] header = readHeader(in);
+		if (header[0] != tree.getWidth() || header[1] != tree.getHeight()) {
+			throw new IOException("encoded quadtree is of a picture of another size");
+		}
+		int colorBits = header[2];
+		InputStream body = (header[3] & FLAG_DEFLATE) != 0 ? new InflaterInputStream(in) : in;
+		BitReader bits = new BitReader(new BufferedInputStream(body));
+		ArrayList<QuadTree.Node> level = new ArrayList<QuadTree.Node>();
+		level.add(tree.getRoot());
+		int leaves = 0;
+		while (!level.isEmpty()) {
+			for (int i = 0; i < 3 * level.size(); i++) {
+				bits.read(colorBits);
+			}
+			bits.align();
+			ArrayList<QuadTree.Node> next = new ArrayList<QuadTree.Node>();
+			for (QuadTree.Node node: level) {
+				boolean split = bits.read(1) == 1;
+				if (!tree.restore(node, split)) {
+					throw new IOException("encoded quadtree splits a node of one pixel row or column");
+				}
+				if (split) {
+					for (int q = 0; q < 4; q++) {
+						next.add(node.child(q));
+					}
+				} else {
+					leaves++;
+				}
+			}
+			bits.align();
+			level = next;
+		}
+		tree.restored(leaves);
+	}
+
+	/** Method that reads and checks the header of an encoded tree
+	 * @param in	the encoded tree
+	 * @return	width, height, color bits and flags
+	 * @throws IOException	if the header can't be read or is not a quadtree header
+	 */
+	private static int[] readHeader(InputStream in) throws IOException {
+		DataInputStream header = new DataInputStream(in);
+		if (header.readInt() != MAGIC) {
+			throw new IOException("not an encoded quadtree");
+		}
+		int width = header.readInt();
+		int height = header.readInt();
+		int colorBits = header.readUnsignedByte();
+		int flags = header.readUnsignedByte();
+		if (width <= 0 || height <= 0 || colorBits < 1 || colorBits > 8) {
+			throw new IOException("bad quadtree header");
+		}
+		return new int[] {width, height, colorBits, flags};
+	}
+
+	/** Method that keeps the top bits of each channel of a color
+	 * @return	the kept bits of each channel, packed as 0xRRGGBB
+	 */
+	private static int quantize(int rgb, int shift) {
+		return ((PixelBuffer.red(rgb) >> shift) << 16) |
+			   ((PixelBuffer.green(rgb) >> shift) << 8) |
+			   (PixelBuffer.blue(rgb) >> shift);
+	}
+
+	/** Method that turns the kept bits of a channel back into a channel value in the middle of
+	 * 	the range of values that share those bits
+	 */
+	private static int dequantize(int channel, int shift) {
+		return shift == 0 ? channel : (channel << shift) | (1 << (shift - 1));
+	}
+
+	/** Decoder that reads a quadtree one level at a time and paints each level over the last,
+	 * 	so the picture can be shown while the rest of the stream is still arriving
+	 */
+	public static final class Decoder {
+		private final InputStream body;
+		//the stream after the header, inflated if the body is deflated
+		private final BitReader bits;
+		//reads the body
+		private final int colorBits;
+		//bits kept of each color channel
+		private final PixelBuffer image;
+		//the picture decoded so far
+		private int[] rows, cols, widths, heights, colors;
+		//regions and quantized colors of the nodes on the next level to read
+		private int count;
+		//number of nodes on the next level to read
+		private int levelsRead;
+		//number of levels decoded so far
+
+		/** Constructor for a decoder. Reads the header from the stream
+		 * @param in	the encoded tree
+		 * @throws IOException	if the header can't be read or is not a quadtree header
+		 */
+		public Decoder(InputStream in) throws IOException {
+			int[] header = readHeader(in);
+			int width = header[0];
+			int height = header[1];
+			this.colorBits = header[2];
+			this.body = (header[3] & FLAG_DEFLATE) != 0 ? new InflaterInputStream(in) : in;
+			this.bits = new BitReader(new BufferedInputStream(this.body));
+			this.image = PixelBuffer.allocate(width, height);
+			this.rows = new int[] {0};
+			this.cols = new int[] {0};
+			this.widths = new int[] {width};
+			this.heights = new int[] {height};
+			this.colors = new int[] {0};
+			this.count = 1;
+		}
+
+		/** Method that reads the next level of the tree and paints its nodes
+		 * @return	false if the tree has no more levels
+		 * @throws IOException	if the stream ends in the middle of a level
+		 */
+		public boolean readLevel() throws IOException {
+			if (this.count == 0) {
+				return false;
+			}
+			int mask = (1 << this.colorBits) - 1;
+			int shift = 8 - this.colorBits;
+			for (int i = 0; i < this.count; i++) {
+				int parent = this.colors[i];
+				int quantized = 0;
+				for (int c = 16; c >= 0; c -= 8) {
+					quantized |= (((parent >> c) + this.bits.read(this.colorBits)) & mask) << c;
+				}
+				this.colors[i] = quantized;
+				int rgb = (dequantize(quantized >> 16, shift) << 16) |
+						  (dequantize((quantized >> 8) & 0xFF, shift) << 8) |
+						  dequantize(quantized & 0xFF, shift);
+				for (int r = this.rows[i]; r < this.rows[i] + this.heights[i]; r++) {
+					this.image.fill(r, this.cols[i], this.widths[i], rgb);
+				}
+			}
+			this.bits.align();
+			int splits = 0;
+			boolean[] split = new boolean[this.count];
+			for (int i = 0; i < this.count; i++) {
+				split[i] = this.bits.read(1) == 1;
+				if (split[i]) {
+					splits++;
+				}
+			}
+			this.bits.align();
+			int[] nextRows = new int[4 * splits];
+			int[] nextCols = new int[4 * splits];
+			int[] nextWidths = new int[4 * splits];
+			int[] nextHeights = new int[4 * splits];
+			int[] nextColors = new int[4 * splits];
+			int n = 0;
+			for (int i = 0; i < this.count; i++) {
+				if (!split[i]) {
+					continue;
+				}
+				int midWidth = this.widths[i] / 2;
+				int midHeight = this.heights[i] / 2;
+				for (int q = 0; q < 4; q++) {
+					nextRows[n] = q < 2 ? this.rows[i] : this.rows[i] + midHeight;
+					nextCols[n] = q % 2 == 0 ? this.cols[i] : this.cols[i] + midWidth;
+					nextWidths[n] = q % 2 == 0 ? midWidth : this.widths[i] - midWidth;
+					nextHeights[n] = q < 2 ? midHeight : this.heights[i] - midHeight;
+					nextColors[n] = this.colors[i];
+					n++;
+				}
+			}
+			this.rows = nextRows;
+			this.cols = nextCols;
+			this.widths = nextWidths;
+			this.heights = nextHeights;
+			this.colors = nextColors;
+			this.count = n;
+			this.levelsRead++;
+			return true;
+		}
+
+		/** Method that reads every remaining level
+		 * @return	the decoded picture
+		 * @throws IOException	if the stream ends early
+		 */
+		public PixelBuffer decodeAll() throws IOException {
+			while (readLevel()) {
+			}
+			return this.image;
+		}
+
+		/** Method that gets the picture decoded so far. It is updated in place by readLevel
+		 * @return	the picture
+		 */
+		public PixelBuffer getImage() {
+			return this.image;
+		}
+
+		public int getLevelsRead() {
+			return this.levelsRead;
+		}
+
+		public boolean isComplete() {
+			return this.count == 0;
+		}
+	}
+
+	/** Writes values of up to 24 bits to a stream, most significant bit first
+	 */
+	private static final class BitWriter {
+		private final OutputStream out;
+		private int buffer;
+		//bits not written yet, in the low bits
+		private int pending;
+		//number of bits in buffer
+
+		BitWriter(OutputStream out) {
+			this.out = out;
+		}
+
+		void write(int value, int count) throws IOException {
+			this.buffer = (this.buffer << count) | (value & ((1 << count) - 1));
+			this.pending += count;
+			while (this.pending >= 8) {
+				this.pending -= 8;
+				this.out.write(this.buffer >> this.pending);
+			}
+			this.buffer &= (1 << this.pending) - 1;
+		}
+
+		/** Method that pads the last partial byte with zeros and writes it
+		 */
+		void align() throws IOException {
+			if (this.pending > 0) {
+				write(0, 8 - this.pending);
+			}
+		}
+	}
+
+	/** Reads values written by BitWriter
+	 */
+	private static final class BitReader {
+		private final InputStream in;
+		private int buffer;
+		//bits not read yet, in the low bits
+		private int available;
+		//number of bits in buffer
+
+		BitReader(InputStream in) {
+			this.in = in;
+		}
+
+		int read(int count) throws IOException {
+			while (this.available < count) {
+				int b = this.in.read();
+				if (b < 0) {
+					throw new EOFException("encoded quadtree ends early");
+				}
+				this.buffer = (this.buffer << 8) | b;
+				this.available += 8;
+			}
+			this.available -= count;
+			int value = (this.buffer >> this.available) & ((1 << count) - 1);
+			this.buffer &= (1 << this.available) - 1;
+			return value;
+		}
+
+		/** Method that skips the padding bits at the end of a byte
+		 */
+		void align() {
+			this.available -= this.available % 8;
+			this.buffer &= (1 << this.available) - 1;
+		}
+	}
+}
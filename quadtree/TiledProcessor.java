@@ -0,0 +1,650 @@
+/**File: TiledProcessor.java
+ * Desc:
+ * 		Processes pictures that are too big to decode at once. The source is read one band of
+ * 		tile rows at a time, every tile of the band gets its own QuadTree, and the finished band
+ * 		is handed to the ImageWriter before the next one is read. Peak memory is a few bands
+ * 		(width * (tileSize + 2 * margin) pixels each) no matter how tall the picture is.
+ *
+ * 		ImageIO readers can't pick up decoding where an earlier read stopped: a read of a source
+ * 		region decodes every row above it again, so reading band by band costs the square of the
+ * 		band count. Sequential (not progressive) JPEG and non-interlaced PNG pictures, whose
+ * 		readers write each row once from the top down, are instead decoded in a single read on a
+ * 		thread of their own into a ring of rows two bands tall, which the bands are copied out of
+ * 		as the writer asks for them. Other pictures, pictures with more than 2^31 samples and
+ * 		bands asked for out of order still go through source regions.
+ */
+
+package quadtree;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+public class TiledProcessor {
+	private final int tileSize;
+	//width and height of a tile
+	private final int margin;
+	//pixels read around each tile so filters see the real neighbours of its edge pixels
+
+	/** Work done on the quadtree of one tile. The result is read from the tree's modified buffer
+	 */
+	public interface TileOperation {
+		void apply(QuadTree tree);
+	}
+
+	/** Constructor for a tiled processor
+	 * @param tileSize	width and height of a tile
+	 * @param margin	pixels of neighbours read around each tile. Use 0 for quadtree renderers and
+	 * 					the kernel radius for convolution filters
+	 */
+	public TiledProcessor(int tileSize, int margin) {
+		if (tileSize <= 0 || margin < 0) {
+			throw new IllegalArgumentException("bad tile size " + tileSize + " or margin " + margin);
+		}
+		this.tileSize = tileSize;
+		this.margin = margin;
+	}
+
+	/** Method that runs an operation over a picture tile by tile and writes the result.
+	 * 	Writers that pull rows through getData(Rectangle), such as png, get the output one band at
+	 * 	a time; writers that ask for the whole raster, such as jpeg, make the output be held in
+	 * 	memory once
+	 * @param input	the picture to read
+	 * @param output	the file to write
+	 * @param format	the informal name of the output format, e.g. "png"
+	 * @param operation	work done on the quadtree of each tile
+	 * @throws IOException	if the picture can't be read or written
+	 */
+	public void process(File input, File output, String format, TileOperation operation)
+			throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+			if (in == null) {
+				throw new IOException("can't read " + input);
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				throw new IOException("no reader for " + input);
+			}
+			ImageReader reader = readers.next();
+			boolean topDown = readsTopDown(reader, in);
+			BandedImage image = null;
+			try {
+				reader.setInput(in, true, true);
+				Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+				if (!writers.hasNext()) {
+					throw new IOException("no writer for " + format);
+				}
+				ImageWriter writer = writers.next();
+				output.delete();
+				try (ImageOutputStream out = ImageIO.createImageOutputStream(output)) {
+					writer.setOutput(out);
+					image = new BandedImage(reader, operation, topDown);
+					writer.write(image);
+				} finally {
+					writer.dispose();
+				}
+			} finally {
+				if (image != null) {
+					image.close();
+				}
+				reader.dispose();
+			}
+		}
+	}
+
+	/** Method that tells if a reader writes every row of a picture once, from the top down,
+	 * 	so the picture can be decoded into a RowStream. Progressive JPEG is drawn once per scan
+	 * 	and interlaced PNG once per pass, so neither is. Leaves the stream where it was
+	 * @param reader	reader of the picture, before its input is set
+	 * @param in	the picture, at its start
+	 * @return	true for sequential JPEG and for PNG that is not interlaced
+	 * @throws IOException	if the stream can't be read
+	 */
+	private static boolean readsTopDown(ImageReader reader, ImageInputStream in) throws IOException {
+		String format = reader.getFormatName().toLowerCase();
+		in.mark();
+		try {
+			if (format.equals("png")) {
+				//interlace method, the last byte of the IHDR chunk after the 8 byte signature
+				in.skipBytes(28);
+				return in.read() == 0;
+			}
+			if (!format.equals("jpeg") || in.readUnsignedShort() != 0xFFD8) {
+				return false;
+			}
+			//segments up to the start of frame, whose marker tells the coding process
+			while (true) {
+				int marker = in.readUnsignedShort();
+				if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA) {
+					return false;
+				}
+				if (marker >= 0xFFC0 && marker <= 0xFFCF && marker != 0xFFC4 &&
+					marker != 0xFFC8 && marker != 0xFFCC) {
+					//baseline or extended sequential
+					return marker == 0xFFC0 || marker == 0xFFC1;
+				}
+				in.skipBytes(in.readUnsignedShort() - 2);
+			}
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.reset();
+		}
+	}
+
+	/** An image whose tiles are full width bands that are only computed when the writer asks
+	 * 	for them. The last band computed is kept, so a writer going down the rows computes each
+	 * 	band once
+	 */
+	private class BandedImage implements RenderedImage {
+		private final ImageReader reader;
+		//reader of the source picture
+		private final TileOperation operation;
+		//work done on the quadtree of each tile
+		private final int width;
+		//width of the picture
+		private final int height;
+		//height of the picture
+		private final ColorModel colorModel;
+		//rgb color model of the output
+		private final SampleModel sampleModel;
+		//layout of one band
+		private int cachedBand;
+		//index of the band in cachedRaster, -1 if there is none
+		private WritableRaster cachedRaster;
+		//the last band computed
+		private RowStream stream;
+		//the source decoded in one read, null once bands are read through source regions
+
+		BandedImage(ImageReader reader, TileOperation operation, boolean topDown)
+				throws IOException {
+			this.reader = reader;
+			this.operation = operation;
+			this.width = reader.getWidth(0);
+			this.height = reader.getHeight(0);
+			this.colorModel = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).getColorModel();
+			this.sampleModel = this.colorModel.createCompatibleSampleModel(this.width,
+																		   TiledProcessor.this.tileSize);
+			this.cachedBand = -1;
+			if (topDown) {
+				int tileSize = TiledProcessor.this.tileSize;
+				this.stream = RowStream.start(reader, this.width, this.height,
+											  2 * (tileSize + TiledProcessor.this.margin));
+			}
+		}
+
+		/** Method that reads rows of the source, from the stream while it still holds them
+		 * @param readRow	first row
+		 * @param readRows	number of rows
+		 * @param nextRow	first row read after these, rows above it are dropped from the stream
+		 * @return	the rows
+		 */
+		private BufferedImage read(int readRow, int readRows, int nextRow) {
+			if (this.stream != null && this.stream.holds(readRow, readRows)) {
+				return this.stream.copy(readRow, readRows, nextRow);
+			}
+			close();
+			ImageReadParam param = this.reader.getDefaultReadParam();
+			param.setSourceRegion(new Rectangle(0, readRow, this.width, readRows));
+			try {
+				return this.reader.read(0, param);
+			} catch (IOException e) {
+				throw new IllegalStateException("can't read rows " + readRow + " to "
+												+ (readRow + readRows), e);
+			}
+		}
+
+		/** Method that stops the stream, so the reader is free for other reads
+		 */
+		void close() {
+			if (this.stream != null) {
+				this.stream.close();
+				this.stream = null;
+			}
+		}
+
+		/** Method that computes a band: reads it with its margins, runs the operation on each
+		 * 	of its tiles in parallel and copies the tile centers into the band
+		 * @param band	index of the band
+		 * @return	the band, positioned at its place in the picture
+		 */
+		private synchronized Raster band(int band) {
+			if (band == this.cachedBand) {
+				return this.cachedRaster;
+			}
+			int tileSize = TiledProcessor.this.tileSize;
+			int margin = TiledProcessor.this.margin;
+			int startRow = band * tileSize;
+			int rows = Math.min(tileSize, this.height - startRow);
+			int readRow = Math.max(0, startRow - margin);
+			int readRows = Math.min(this.height, startRow + rows + margin) - readRow;
+			BufferedImage source = read(readRow, readRows,
+										Math.max(0, startRow + tileSize - margin));
+			BufferedImage out = new BufferedImage(this.width, tileSize, BufferedImage.TYPE_INT_RGB);
+			PixelBuffer outPixels = PixelBuffer.wrap(out);
+			int tiles = (this.width + tileSize - 1) / tileSize;
+			IntStream.range(0, tiles).parallel().forEach(tile -> {
+				int startCol = tile * tileSize;
+				int cols = Math.min(tileSize, this.width - startCol);
+				int readCol = Math.max(0, startCol - margin);
+				int readCols = Math.min(this.width, startCol + cols + margin) - readCol;
+				QuadTree tree = new QuadTree(PixelBuffer.wrap(
+						source.getSubimage(readCol, 0, readCols, readRows)));
+				this.operation.apply(tree);
+				PixelBuffer result = tree.getModifiedBuffer();
+				//copy the tile without its margin
+				int[] row = new int[cols];
+				for (int r = 0; r < rows; r++) {
+					result.getRow(startRow - readRow + r, startCol - readCol, cols, row, 0);
+					outPixels.setRow(r, startCol, cols, row, 0);
+				}
+			});
+			this.cachedBand = band;
+			this.cachedRaster = out.getRaster().createWritableTranslatedChild(0, startRow);
+			return this.cachedRaster;
+		}
+
+		@Override
+		public Raster getTile(int tileX, int tileY) {
+			return band(tileY);
+		}
+
+		@Override
+		public Raster getData(Rectangle rect) {
+			WritableRaster data = Raster.createWritableRaster(
+					this.sampleModel.createCompatibleSampleModel(rect.width, rect.height),
+					new Point(rect.x, rect.y));
+			int tileSize = TiledProcessor.this.tileSize;
+			int firstBand = rect.y / tileSize;
+			int lastBand = (rect.y + rect.height - 1) / tileSize;
+			for (int b = firstBand; b <= lastBand; b++) {
+				//copies the part of the band inside rect
+				data.setRect(band(b));
+			}
+			return data;
+		}
+
+		@Override
+		public Raster getData() {
+			return getData(new Rectangle(0, 0, this.width, this.height));
+		}
+
+		@Override
+		public WritableRaster copyData(WritableRaster raster) {
+			if (raster == null) {
+				return (WritableRaster) getData();
+			}
+			raster.setRect(getData(raster.getBounds()));
+			return raster;
+		}
+
+		@Override
+		public Vector<RenderedImage> getSources() {
+			return null;
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return java.awt.Image.UndefinedProperty;
+		}
+
+		@Override
+		public String[] getPropertyNames() {
+			return null;
+		}
+
+		@Override
+		public ColorModel getColorModel() {
+			return this.colorModel;
+		}
+
+		@Override
+		public SampleModel getSampleModel() {
+			return this.sampleModel;
+		}
+
+		@Override
+		public int getWidth() {
+			return this.width;
+		}
+
+		@Override
+		public int getHeight() {
+			return this.height;
+		}
+
+		@Override
+		public int getMinX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinY() {
+			return 0;
+		}
+
+		@Override
+		public int getNumXTiles() {
+			return 1;
+		}
+
+		@Override
+		public int getNumYTiles() {
+			return (this.height + TiledProcessor.this.tileSize - 1) / TiledProcessor.this.tileSize;
+		}
+
+		@Override
+		public int getMinTileX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinTileY() {
+			return 0;
+		}
+
+		@Override
+		public int getTileWidth() {
+			return this.width;
+		}
+
+		@Override
+		public int getTileHeight() {
+			return TiledProcessor.this.tileSize;
+		}
+
+		@Override
+		public int getTileGridXOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getTileGridYOffset() {
+			return 0;
+		}
+	}
+
+	/** Rows of a picture decoded in one read on a thread of their own. The reader draws into
+	 * 	an image the size of the picture whose samples are kept in a ring of rows, and blocks
+	 * 	when it reaches a row whose place in the ring is still held by rows not handed out yet.
+	 * 	Only for readers that write every row once, from the top down: the rows above the one
+	 * 	being written are taken to be finished
+	 */
+	private static final class RowStream extends DataBuffer implements Runnable {
+		private final ImageReader reader;
+		//reader of the picture, used by nothing else while the stream runs
+		private final BufferedImage image;
+		//the picture the reader draws into, over this buffer
+		private final int width;
+		//width of the picture
+		private final int height;
+		//height of the picture
+		private final int stride;
+		//samples per row
+		private final int ringRows;
+		//rows the ring holds
+		private final byte[] bytes;
+		//the ring, for byte samples
+		private final int[] ints;
+		//the ring, for every other kind of sample
+		private final Thread thread;
+		//the thread running the read
+		private int current;
+		//row being written, every row above it is finished
+		private int released;
+		//rows above this were handed out and their place in the ring can be reused
+		private boolean done;
+		//the read finished
+		private boolean closed;
+		//the stream was stopped before the read finished
+		private Throwable failure;
+		//what ended the read early, null if nothing did
+
+		private RowStream(ImageReader reader, ImageTypeSpecifier type, SampleModel sampleModel,
+						  int stride, int width, int height, int ringRows) {
+			super(sampleModel.getDataType(), stride * height);
+			this.reader = reader;
+			this.width = width;
+			this.height = height;
+			this.stride = stride;
+			this.ringRows = Math.min(height, ringRows);
+			int size = this.ringRows * stride;
+			this.bytes = getDataType() == TYPE_BYTE ? new byte[size] : null;
+			this.ints = getDataType() == TYPE_BYTE ? null : new int[size];
+			this.image = new BufferedImage(type.getColorModel(),
+										   Raster.createWritableRaster(sampleModel, this, null), false,
+										   null);
+			this.thread = new Thread(this, "tile decoder");
+			this.thread.setDaemon(true);
+		}
+
+		/** Method that starts decoding a picture, if its rows can be kept in a ring
+		 * @param reader	reader of the picture, with its input set
+		 * @param width	width of the picture
+		 * @param height	height of the picture
+		 * @param ringRows	rows the ring holds, at least the rows of one band with its margins
+		 * @return	the running stream, or null if the picture has to be read through source
+		 * 			regions
+		 * @throws IOException	if the picture can't be read
+		 */
+		static RowStream start(ImageReader reader, int width, int height, int ringRows)
+				throws IOException {
+			Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+			if (!types.hasNext()) {
+				return null;
+			}
+			//the type a plain read draws into. Only the types whose samples PixelBuffer.wrap reads
+			//as they are, so tiles see the same pixels as a picture decoded whole
+			ImageTypeSpecifier type = types.next();
+			switch (type.getBufferedImageType()) {
+				case BufferedImage.TYPE_INT_RGB:
+				case BufferedImage.TYPE_INT_ARGB:
+				case BufferedImage.TYPE_3BYTE_BGR:
+				case BufferedImage.TYPE_4BYTE_ABGR:
+				case BufferedImage.TYPE_BYTE_GRAY:
+					break;
+				default:
+					return null;
+			}
+			SampleModel sampleModel = type.getSampleModel(1, 1);
+			int dataType = sampleModel.getDataType();
+			if (dataType != DataBuffer.TYPE_BYTE && dataType != DataBuffer.TYPE_INT &&
+				dataType != DataBuffer.TYPE_USHORT) {
+				return null;
+			}
+			long samples;
+			if (sampleModel instanceof ComponentSampleModel) {
+				samples = (long) width * ((ComponentSampleModel) sampleModel).getPixelStride();
+			} else if (sampleModel instanceof SinglePixelPackedSampleModel) {
+				samples = width;
+			} else if (sampleModel instanceof MultiPixelPackedSampleModel) {
+				int bits = ((MultiPixelPackedSampleModel) sampleModel).getPixelBitStride();
+				int perElement = DataBuffer.getDataTypeSize(dataType);
+				samples = ((long) width * bits + perElement - 1) / perElement;
+			} else {
+				return null;
+			}
+			if (samples * height > Integer.MAX_VALUE || sampleModel instanceof BandedSampleModel) {
+				//too big to index, or a bank per band
+				return null;
+			}
+			sampleModel = sampleModel.createCompatibleSampleModel(width, height);
+			int stride = sampleModel instanceof ComponentSampleModel
+						 ? ((ComponentSampleModel) sampleModel).getScanlineStride()
+						 : sampleModel instanceof SinglePixelPackedSampleModel
+						 ? ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride()
+						 : ((MultiPixelPackedSampleModel) sampleModel).getScanlineStride();
+			RowStream stream = new RowStream(reader, type, sampleModel, stride, width, height,
+											 ringRows);
+			stream.thread.start();
+			return stream;
+		}
+
+		@Override
+		public void run() {
+			try {
+				ImageReadParam param = this.reader.getDefaultReadParam();
+				param.setDestination(this.image);
+				this.reader.read(0, param);
+				synchronized (this) {
+					this.done = true;
+					this.current = this.height;
+				}
+			} catch (Throwable e) {
+				synchronized (this) {
+					this.failure = e;
+				}
+			} finally {
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+
+		/** Method that tells if rows can still be copied out of the ring
+		 * @param from	first row
+		 * @param count	number of rows
+		 * @return	true if none of them has been handed out and they fit in the ring together
+		 * 			with the rows not handed out yet
+		 */
+		synchronized boolean holds(int from, int count) {
+			return from >= this.released && from + count <= this.released + this.ringRows &&
+				   this.failure == null && !this.closed;
+		}
+
+		/** Method that waits for rows to be decoded and copies them out of the ring
+		 * @param from	first row
+		 * @param count	number of rows
+		 * @param keep	first row still wanted after these, the place of the rows above it in
+		 * 				the ring is given back to the reader
+		 * @return	the rows
+		 */
+		BufferedImage copy(int from, int count, int keep) {
+			synchronized (this) {
+				while (this.current < from + count && !this.done && this.failure == null &&
+					   !this.closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException("interrupted waiting for row " + from, e);
+					}
+				}
+				if (this.current < from + count) {
+					throw new IllegalStateException("can't read rows " + from + " to " +
+													(from + count), this.failure);
+				}
+			}
+			//finished rows that the reader can't overwrite until they are released below
+			BufferedImage rows = new BufferedImage(this.width, count, BufferedImage.TYPE_INT_RGB);
+			PixelBuffer pixels = PixelBuffer.wrap(rows);
+			Raster raster = this.image.getRaster();
+			int bands = raster.getNumBands();
+			int[] samples = new int[this.width * bands];
+			int[] row = new int[this.width];
+			for (int r = 0; r < count; r++) {
+				raster.getPixels(0, from + r, this.width, 1, samples);
+				//bands are red, green, blue and maybe alpha, or one gray band
+				for (int c = 0, i = 0; c < this.width; c++, i += bands) {
+					row[c] = bands >= 3 ? PixelBuffer.pack(samples[i], samples[i + 1], samples[i + 2])
+										: PixelBuffer.pack(samples[i], samples[i], samples[i]);
+				}
+				pixels.setRow(r, 0, this.width, row, 0);
+			}
+			synchronized (this) {
+				this.released = Math.max(this.released, keep);
+				notifyAll();
+			}
+			return rows;
+		}
+
+		/** Method that stops the read and waits for its thread to end
+		 */
+		void close() {
+			synchronized (this) {
+				this.closed = true;
+				notifyAll();
+			}
+			this.reader.abort();
+			try {
+				this.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/** Method that moves the reader on to a row, waiting until the ring has room for it
+		 * @param row	the row the reader writes next
+		 */
+		private synchronized void advance(int row) {
+			if (row < this.current) {
+				throw new IllegalStateException("reader went back to row " + row + " from " +
+												this.current);
+			}
+			while (row >= this.released + this.ringRows && !this.closed) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					this.closed = true;
+				}
+			}
+			if (this.closed) {
+				throw new IllegalStateException("tile decoder stopped");
+			}
+			this.current = row;
+			notifyAll();
+		}
+
+		/** Method that gets the index of a sample in the ring
+		 * @param i	index of the sample in the picture
+		 * @return	its index in the ring
+		 */
+		private int ringIndex(int i) {
+			int row = i / this.stride;
+			return (row % this.ringRows) * this.stride + (i - row * this.stride);
+		}
+
+		@Override
+		public int getElem(int bank, int i) {
+			int j = ringIndex(i);
+			return this.bytes != null ? this.bytes[j] & 0xFF : this.ints[j];
+		}
+
+		@Override
+		public void setElem(int bank, int i, int val) {
+			int row = i / this.stride;
+			if (row != this.current) {
+				advance(row);
+			}
+			int j = ringIndex(i);
+			if (this.bytes != null) {
+				this.bytes[j] = (byte) val;
+			} else {
+				this.ints[j] = val;
+			}
+		}
+	}
+}
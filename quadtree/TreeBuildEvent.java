@@ -0,0 +1,74 @@
+/**File: TreeBuildEvent.java
+ * Desc:
+ * 		Flight recorder event for a tree build, with the shape of the tree it made. The shape is
+ * 		only walked for when a recording has the event enabled.
+ */
+
+package quadtree;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("quadtree.TreeBuild")
+@Label("Quadtree Build")
+@Category("Quadtree")
+@Description("Building a quadtree and the shape of the result")
+final class TreeBuildEvent extends Event {
+	@Label("Width")
+	int width;
+	@Label("Height")
+	int height;
+	@Label("Threshold")
+	int threshold;
+	@Label("Parallel")
+	boolean parallel;
+	//built by insertParallel
+	@Label("Leaves")
+	int numLeaves;
+	@Label("Nodes")
+	int numNodes;
+	@Label("Max Depth")
+	int maxDepth;
+	@Label("Error Computations")
+	long errorComputations;
+	//nodes whose error was read from the summed-area tables to decide on a split
+	@Label("Leaves At Threshold")
+	int leavesAtThreshold;
+	//leaves that could have been split but whose error was within the threshold
+	@Label("Nodes Per Level")
+	String nodesPerLevel;
+	//comma separated, from level 0 down
+
+	/** Method that stops timing the build and records it with the tree's statistics if a
+	 * 	recording wants it
+	 * @param tree	the built tree
+	 * @param parallel	true if it was built by insertParallel
+	 */
+	void finish(QuadTree tree, boolean parallel) {
+		end();
+		if (shouldCommit()) {
+			TreeStats stats = tree.getStats();
+			this.width = tree.getWidth();
+			this.height = tree.getHeight();
+			this.threshold = stats.getThreshold();
+			this.parallel = parallel;
+			this.numLeaves = stats.getNumLeaves();
+			this.numNodes = stats.getNumNodes();
+			this.maxDepth = stats.getMaxDepth();
+			this.errorComputations = stats.getErrorComputations();
+			this.leavesAtThreshold = stats.getLeavesAtThreshold();
+			StringBuilder levels = new StringBuilder();
+			for (int count: stats.getNodesPerLevel()) {
+				if (levels.length() > 0) {
+					levels.append(',');
+				}
+				levels.append(count);
+			}
+			this.nodesPerLevel = levels.toString();
+			commit();
+		}
+	}
+}
@@ -0,0 +1,349 @@
+/**File: TreeCache.java
+ * Desc:
+ * 		Keeps built quadtrees and rendered pictures in memory so that the same picture asked for
+ * 		again, with a different filter or the same one, skips the build and often the render.
+ * 		Entries are keyed by the SHA-256 of the pixels plus the build parameters, and rendered
+ * 		pictures by that key plus the render parameters, so two files holding the same pixels
+ * 		share their entries. Entries are dropped least recently used first once their estimated
+ * 		size goes over a budget of bytes.
+ *
+ * 		With a spill directory, a tree dropped from memory is written there in the format of
+ * 		QuadTreeCodec, one file per key, and read back into a tree over the picture the next time
+ * 		it is asked for instead of being built again. Reading a tree back still measures every
+ * 		node on the summed-area tables, so it only beats building trees whose build did more
+ * 		than that, like best first builds; trees that were quicker to build than to read are
+ * 		dropped. Spilled files are kept until deleted by hand. Rendered pictures are only kept
+ * 		in memory.
+ *
+ * 		Cached trees are shared by every caller, so they are handed out frozen: they can only be
+ * 		rendered into buffers of the caller's own, never built, updated or given a render
+ * 		threshold again. The pictures render() returns must not be changed.
+ */
+
+package quadtree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+public final class TreeCache {
+	private static final long NODE_BYTES = 112;
+	//estimated size of a node with its mean color array, on a 64 bit JVM with compressed oops
+	private static final long READ_NANOS_PER_NODE = 100;
+	//rough time QuadTreeCodec.decodeTree takes per node, trees built faster are not spilled
+	private static final String RENDER_SEPARATOR = "|";
+	//separates the tree key from the render parameters in the key of a rendered picture
+	private final long maxBytes;
+	//the budget the estimated sizes of the entries are kept under
+	private final File spillDir;
+	//directory trees dropped from memory are written to, null to drop them
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	//trees and rendered pictures, least recently used first
+	private long bytes;
+	//estimated size of every entry
+	private long treeHits, treeMisses, renderHits, renderMisses, evictions, spills, spillHits;
+	//counters since the cache was made
+
+	/** A tree or a rendered picture in memory
+	 */
+	private static final class Entry {
+		private final FrozenTree tree;
+		//the tree, null for a rendered picture
+		private final PixelBuffer picture;
+		//the rendered picture, null for a tree
+		private final long bytes;
+		//estimated size
+		private final boolean spill;
+		//true if the tree is worth writing to the spill directory when it is dropped
+
+		Entry(FrozenTree tree, PixelBuffer picture, long bytes, boolean spill) {
+			this.tree = tree;
+			this.picture = picture;
+			this.bytes = bytes;
+			this.spill = spill;
+		}
+	}
+
+	/** Constructor for a cache
+	 * @param maxBytes	the budget for the estimated size of everything kept in memory
+	 * @param spillDir	directory trees dropped from memory are written to, or null
+	 */
+	public TreeCache(long maxBytes, File spillDir) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("negative cache size " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+		this.spillDir = spillDir;
+		if (spillDir != null) {
+			spillDir.mkdirs();
+		}
+	}
+
+	/** Method that makes the key of a tree: the SHA-256 of the size and pixels of the picture
+	 * 	and the parameters the tree is built with
+	 * @param pixels	the picture
+	 * @param buildParams	every parameter of the build, e.g. "threshold=1000"
+	 * @return	the key, in hex followed by the parameters
+	 */
+	public static String key(PixelBuffer pixels, String buildParams) {
+		MessageDigest digest = sha256();
+		int width = pixels.getWidth();
+		int[] row = new int[width];
+		byte[] bytes = new byte[4 * width];
+		digest.update(toBytes(new int[] {width, pixels.getHeight()}, 2, new byte[8]));
+		for (int r = 0; r < pixels.getHeight(); r++) {
+			pixels.getRow(r, 0, width, row, 0);
+			digest.update(toBytes(row, width, bytes));
+		}
+		return hex(digest.digest()) + "/" + buildParams;
+	}
+
+	/** Method that gets the tree of a key, reading it back from the spill directory or building
+	 * 	it if it is not in memory
+	 * @param key	the key of the tree, from key(pixels, buildParams)
+	 * @param pixels	the picture the key was made from
+	 * @param threshold	the build threshold of the key, set on the new tree before it is read
+	 * 					back or built
+	 * @param build	builds a new tree over the picture with the other parameters of the key
+	 * @return	the tree, shared with every other caller of the key
+	 */
+	public FrozenTree tree(String key, PixelBuffer pixels, int threshold, Consumer<QuadTree> build) {
+		synchronized (this) {
+			Entry entry = this.entries.get(key);
+			if (entry != null) {
+				this.treeHits++;
+				return entry.tree;
+			}
+			this.treeMisses++;
+		}
+		//two callers missing the same key at once both build it, and the second one is kept
+		QuadTree tree = readSpilled(key, pixels, threshold);
+		boolean spill = tree != null;
+		if (tree == null) {
+			tree = new QuadTree(pixels);
+			tree.setThreshold(threshold);
+			long start = System.nanoTime();
+			build.accept(tree);
+			spill = System.nanoTime() - start > nodes(tree) * READ_NANOS_PER_NODE;
+		}
+		FrozenTree frozen = new FrozenTree(tree);
+		put(key, new Entry(frozen, null, treeBytes(tree), spill));
+		return frozen;
+	}
+
+	/** Method that gets a rendered picture of a cached tree, rendering it into a new buffer if
+	 * 	it is not in memory. Any number of callers may render the same tree at once
+	 * @param key	the key of the tree
+	 * @param renderParams	every parameter of the render, e.g. "op=edge"
+	 * @param tree	the tree of the key
+	 * @param render	draws the picture of the tree into the buffer, e.g. FrozenTree::edgeDetection
+	 * @return	the picture, which must not be changed
+	 */
+	public PixelBuffer render(String key, String renderParams, FrozenTree tree,
+							  BiConsumer<FrozenTree, PixelBuffer> render) {
+		String renderKey = key + RENDER_SEPARATOR + renderParams;
+		synchronized (this) {
+			Entry entry = this.entries.get(renderKey);
+			if (entry != null) {
+				this.renderHits++;
+				return entry.picture;
+			}
+			this.renderMisses++;
+		}
+		PixelBuffer picture = PixelBuffer.allocate(tree.getWidth(), tree.getHeight());
+		render.accept(tree, picture);
+		put(renderKey, new Entry(null, picture, 4L * picture.getWidth() * picture.getHeight(), false));
+		return picture;
+	}
+
+	/** Method that adds an entry and drops the least recently used ones until everything fits
+	 * 	the budget again. An entry bigger than the whole budget is not kept. Dropped trees are
+	 * 	spilled after the lock is released
+	 * @param key	the key of the entry
+	 * @param entry	the entry
+	 */
+	private void put(String key, Entry entry) {
+		List<Map.Entry<String, Entry>> dropped = new ArrayList<Map.Entry<String, Entry>>();
+		synchronized (this) {
+			if (entry.bytes > this.maxBytes) {
+				return;
+			}
+			Entry old = this.entries.put(key, entry);
+			if (old != null) {
+				this.bytes -= old.bytes;
+			}
+			this.bytes += entry.bytes;
+			Iterator<Map.Entry<String, Entry>> eldest = this.entries.entrySet().iterator();
+			while (this.bytes > this.maxBytes) {
+				Map.Entry<String, Entry> drop = eldest.next();
+				eldest.remove();
+				this.bytes -= drop.getValue().bytes;
+				this.evictions++;
+				dropped.add(drop);
+			}
+		}
+		for (Map.Entry<String, Entry> drop: dropped) {
+			if (drop.getValue().spill) {
+				spill(drop.getKey(), drop.getValue().tree.tree);
+			}
+		}
+	}
+
+	/** Method that writes a dropped tree to the spill directory, unless it is already there.
+	 * 	The file is written under a temporary name and renamed, so a reader never sees half of it
+	 * @param key	the key of the tree
+	 * @param tree	the tree
+	 */
+	private void spill(String key, QuadTree tree) {
+		if (this.spillDir == null) {
+			return;
+		}
+		File file = spillFile(key);
+		if (file.exists()) {
+			return;
+		}
+		try {
+			File partial = File.createTempFile(file.getName(), ".part", this.spillDir);
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(partial))) {
+				//decodeTree only reads the split bits, so the colors are kept as small as they go
+				QuadTreeCodec.encode(tree, out, 1, true);
+			}
+			Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					   StandardCopyOption.ATOMIC_MOVE);
+			synchronized (this) {
+				this.spills++;
+			}
+		} catch (IOException e) {
+			System.err.println("can't spill " + key + " to " + file + ": " + e);
+		}
+	}
+
+	/** Method that reads a spilled tree back, if the spill directory has the key
+	 * @param key	the key of the tree
+	 * @param pixels	the picture of the key
+	 * @param threshold	the build threshold of the key
+	 * @return	the tree, or null if it was not spilled or can't be read
+	 */
+	private QuadTree readSpilled(String key, PixelBuffer pixels, int threshold) {
+		if (this.spillDir == null) {
+			return null;
+		}
+		File file = spillFile(key);
+		if (!file.exists()) {
+			return null;
+		}
+		QuadTree tree = new QuadTree(pixels);
+		tree.setThreshold(threshold);
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			QuadTreeCodec.decodeTree(in, tree);
+		} catch (IOException e) {
+			System.err.println("can't read spilled tree " + file + ": " + e);
+			file.delete();
+			return null;
+		}
+		synchronized (this) {
+			this.spillHits++;
+		}
+		return tree;
+	}
+
+	/** Method that names the spill file of a key by the SHA-256 of the whole key, so the build
+	 * 	parameters need not be safe in a file name
+	 */
+	private File spillFile(String key) {
+		return new File(this.spillDir, hex(sha256().digest(key.getBytes(StandardCharsets.UTF_8))) + ".qtc");
+	}
+
+	/** Method that estimates the memory held by a tree: its picture, its modified image, the
+	 * 	four summed-area tables of longs and the nodes
+	 * @param tree	the built tree
+	 * @return	the estimate in bytes
+	 */
+	private static long treeBytes(QuadTree tree) {
+		long pixels = (long) tree.getWidth() * tree.getHeight();
+		long tables = 4L * 8 * (tree.getWidth() + 1) * (tree.getHeight() + 1);
+		return 2 * 4 * pixels + tables + nodes(tree) * NODE_BYTES;
+	}
+
+	/** Method that counts the nodes of a built tree from its leaves, since a tree of n leaves
+	 * 	has (4n - 1) / 3 nodes
+	 */
+	private static long nodes(QuadTree tree) {
+		return (4L * tree.getNumLeaves() - 1) / 3;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			//every JVM has to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Method that lays ints out as big endian bytes
+	 * @param ints	the ints
+	 * @param count	number of ints to lay out
+	 * @param bytes	array of at least 4 * count bytes the ints are written into
+	 * @return	bytes
+	 */
+	private static byte[] toBytes(int[] ints, int count, byte[] bytes) {
+		for (int i = 0; i < count; i++) {
+			bytes[4 * i] = (byte) (ints[i] >> 24);
+			bytes[4 * i + 1] = (byte) (ints[i] >> 16);
+			bytes[4 * i + 2] = (byte) (ints[i] >> 8);
+			bytes[4 * i + 3] = (byte) ints[i];
+		}
+		return bytes;
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(2 * bytes.length);
+		for (byte b: bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/** Method that gets the counters, one "name value" line each, in the format of the stats of
+	 * 	ImageServer
+	 * @return	the counters
+	 */
+	@Override
+	public synchronized String toString() {
+		return "cache_tree_hits " + this.treeHits + "\n" +
+			   "cache_tree_misses " + this.treeMisses + "\n" +
+			   "cache_render_hits " + this.renderHits + "\n" +
+			   "cache_render_misses " + this.renderMisses + "\n" +
+			   "cache_evictions " + this.evictions + "\n" +
+			   "cache_spills " + this.spills + "\n" +
+			   "cache_spill_hits " + this.spillHits + "\n" +
+			   "cache_entries " + this.entries.size() + "\n" +
+			   "cache_bytes " + this.bytes + "\n";
+	}
+}
@@ -0,0 +1,97 @@
+/**File: TreeStats.java
+ * Desc:
+ * 		A snapshot of the shape of a built quadtree and how long the build took. Taking one walks
+ * 		the tree once and costs nothing while the tree is being built. The shape is the tree as
+ * 		built, not as cut by a render threshold.
+ */
+
+package quadtree;
+
+import java.util.Arrays;
+
+public final class TreeStats {
+	private final int threshold;
+	//threshold the tree was built with
+	private final int numLeaves;
+	//leaves of the tree
+	private final int[] nodesPerLevel;
+	//nodes on each level, from level 0 down to the deepest
+	private final int[] leavesPerLevel;
+	//leaves on each level, from level 0 down to the deepest
+	private final long errorComputations;
+	//nodes whose error was computed to decide on a split
+	private final int leavesAtThreshold;
+	//leaves big enough to split whose error was within the threshold
+	private final long buildNanos;
+	//wall clock time of the last build, 0 if the tree was not built
+
+	TreeStats(int threshold, int[] nodesPerLevel, int[] leavesPerLevel, long errorComputations,
+			  int leavesAtThreshold, long buildNanos) {
+		this.threshold = threshold;
+		this.nodesPerLevel = nodesPerLevel;
+		this.leavesPerLevel = leavesPerLevel;
+		this.errorComputations = errorComputations;
+		this.leavesAtThreshold = leavesAtThreshold;
+		this.buildNanos = buildNanos;
+		int leaves = 0;
+		for (int count: leavesPerLevel) {
+			leaves += count;
+		}
+		this.numLeaves = leaves;
+	}
+
+	public int getThreshold() {
+		return this.threshold;
+	}
+
+	public int getNumLeaves() {
+		return this.numLeaves;
+	}
+
+	public int getNumNodes() {
+		int nodes = 0;
+		for (int count: this.nodesPerLevel) {
+			nodes += count;
+		}
+		return nodes;
+	}
+
+	public int getMaxDepth() {
+		return this.nodesPerLevel.length - 1;
+	}
+
+	/** Method that gets the number of nodes on each level
+	 * @return	a copy of the counts, index i for level i
+	 */
+	public int[] getNodesPerLevel() {
+		return this.nodesPerLevel.clone();
+	}
+
+	/** Method that gets the number of leaves on each level, the depth histogram of the leaves
+	 * @return	a copy of the counts, index i for level i
+	 */
+	public int[] getLeavesPerLevel() {
+		return this.leavesPerLevel.clone();
+	}
+
+	public long getErrorComputations() {
+		return this.errorComputations;
+	}
+
+	public int getLeavesAtThreshold() {
+		return this.leavesAtThreshold;
+	}
+
+	public long getBuildNanos() {
+		return this.buildNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d leaves, %d nodes, depth %d, %d error computations, " +
+							 "%d leaves at threshold %d, build %.1f ms, leaves per level %s",
+							 this.numLeaves, getNumNodes(), getMaxDepth(), this.errorComputations,
+							 this.leavesAtThreshold, this.threshold, this.buildNanos / 1e6,
+							 Arrays.toString(this.leavesPerLevel));
+	}
+}